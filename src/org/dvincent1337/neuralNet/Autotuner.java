@@ -0,0 +1,294 @@
+package org.dvincent1337.neuralNet;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+/*
+* Finds the fastest batch sizes and thread counts for a topology on this machine and saves them as a TuningProfile.
+*
+* 	The number of BLAS threads is fixed once jblas has loaded its native library, so every BLAS thread count is
+* 	measured in its own JVM, started with OPENBLAS_NUM_THREADS (and OMP_NUM_THREADS / MKL_NUM_THREADS) set.
+* 	In each JVM:
+* 		-inference: rows/sec of BatchedPredictor (forwardPropPredict) for every batch size and number of worker threads
+* 		-training: evaluations/sec of BackPropCost, and of PipelinedBackPropCost for every number of stages and micro-batch size
+* 	The fastest inference and training settings (including their BLAS thread count) are saved to the profile,
+* 	which trainWithBackprop and BatchedPredictor read at startup for networks of the tuned topology.
+*/
+
+
+public class Autotuner
+{
+	static final double MIN_SECONDS = 0.5;	//Minimum duration of each measurement
+	static final int [] BATCH_SIZES = {64,256,1024,4096};
+	static final int [] MICRO_BATCHES = {32,128,512};
+
+	/*
+	 * Args: [topology, for example 400,25,10] [number of examples] [profile file (optional)]
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length >= 3 && args[0].equals("--child"))
+		{
+			benchmark(parseTopology(args[1]),Integer.parseInt(args[2]));
+			return;
+		}
+		if (args.length < 2)
+		{
+			System.out.println("Please include the arguments [topology, for example 400,25,10] [number of examples] [profile file (optional)]");
+			return;
+		}
+		try
+		{
+			parseTopology(args[0]);
+			int examples = Integer.parseInt(args[1]);
+			File file = (args.length > 2) ? new File(args[2]) : TuningProfile.getDefaultFile();
+
+			HashMap<String, Double> bestInference = null;
+			HashMap<String, Double> bestTraining = null;
+			int bestInferenceBlas = 1;
+			int bestTrainingBlas = 1;
+			for (int blas : threadCounts(Runtime.getRuntime().availableProcessors()))
+			{
+				System.out.println("BLAS threads: "+blas);
+				HashMap<String, Double> results = runChild(blas,args[0],examples);
+				if (results == null)
+					continue;
+				if (bestInference == null || value(results,"inference.rowsPerSecond") > value(bestInference,"inference.rowsPerSecond"))
+				{
+					bestInference = results;
+					bestInferenceBlas = blas;
+				}
+				if (bestTraining == null || value(results,"training.evaluationsPerSecond") > value(bestTraining,"training.evaluationsPerSecond"))
+				{
+					bestTraining = results;
+					bestTrainingBlas = blas;
+				}
+			}
+			if (bestInference == null)
+			{
+				System.out.println("No benchmark finished, the profile was not saved");
+				return;
+			}
+
+			TuningProfile profile = new TuningProfile();
+			profile.setString(TuningProfile.TUNED_TOPOLOGY,args[0]);
+			profile.setInt(TuningProfile.TUNED_EXAMPLES,examples);
+			profile.setInt(TuningProfile.TUNED_PROCESSORS,Runtime.getRuntime().availableProcessors());
+			profile.setInt(TuningProfile.INFERENCE_BLAS_THREADS,bestInferenceBlas);
+			profile.setInt(TuningProfile.INFERENCE_BATCH_SIZE,(int) value(bestInference,"inference.batchSize"));
+			profile.setInt(TuningProfile.INFERENCE_WORKERS,(int) value(bestInference,"inference.workers"));
+			profile.setInt(TuningProfile.TRAINING_BLAS_THREADS,bestTrainingBlas);
+			profile.setInt(TuningProfile.TRAINING_STAGES,(int) value(bestTraining,"training.stages"));
+			profile.setInt(TuningProfile.TRAINING_MICRO_BATCH,(int) value(bestTraining,"training.microBatch"));
+			profile.save(file,"Autotuner results");
+
+			System.out.println("Inference: "+(long) value(bestInference,"inference.rowsPerSecond")+" rows/sec with batches of "
+					+(int) value(bestInference,"inference.batchSize")+", "+(int) value(bestInference,"inference.workers")
+					+" workers, "+bestInferenceBlas+" BLAS threads");
+			System.out.println("Training: "+value(bestTraining,"training.evaluationsPerSecond")+" evaluations/sec with "
+					+(int) value(bestTraining,"training.stages")+" stages, "+bestTrainingBlas+" BLAS threads");
+			System.out.println("Saved "+file);
+			System.out.println("Before training run:  export OPENBLAS_NUM_THREADS="+bestTrainingBlas);
+			System.out.println("Before inference run: export OPENBLAS_NUM_THREADS="+bestInferenceBlas);
+		}
+		catch (NumberFormatException | IOException | InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the benchmarks in a new JVM with the given number of BLAS threads.
+	 * Returns the results it reported, or null if it failed.
+	 */
+	static HashMap<String, Double> runChild(int blasThreads, String topology, int examples) throws IOException, InterruptedException
+	{
+		Vector<String> command = new Vector<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		if (System.getProperty("java.library.path") != null)
+			command.add("-Djava.library.path="+System.getProperty("java.library.path"));
+		command.add(Autotuner.class.getName());
+		command.add("--child");
+		command.add(topology);
+		command.add(Integer.toString(examples));
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.environment().put("OPENBLAS_NUM_THREADS",Integer.toString(blasThreads));
+		builder.environment().put("OMP_NUM_THREADS",Integer.toString(blasThreads));
+		builder.environment().put("MKL_NUM_THREADS",Integer.toString(blasThreads));
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+
+		HashMap<String, Double> results = new HashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String [] parts = line.split(" ");
+				if (parts.length == 3 && parts[0].equals("RESULT"))
+					results.put(parts[1],Double.valueOf(parts[2]));
+				else
+					System.out.println("\t"+line);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		if (process.waitFor() != 0 || !results.containsKey("training.evaluationsPerSecond"))
+		{
+			System.out.println("\tBenchmark with "+blasThreads+" BLAS threads failed");
+			return null;
+		}
+		return results;
+	}
+
+	/**
+	 * Runs every benchmark in this JVM and prints the fastest settings as RESULT lines.
+	 */
+	static void benchmark(final int [] topology, int examples)
+	{
+		int processors = Runtime.getRuntime().availableProcessors();
+		org.jblas.util.Random.seed(1337);
+		final DoubleMatrix X = DoubleMatrix.rand(examples,topology[0]);
+		DoubleMatrix Y = DoubleMatrix.zeros(examples,topology[topology.length-1]);
+		for (int i = 0; i<examples; i++)
+		{
+			Y.put(i,i%Y.getColumns(),1);
+		}
+		NeuralNetwork nn = new NeuralNetwork(topology,true);
+		final DoubleMatrix theta = NeuralNetwork.reshapeToVector(nn.getTheta());
+
+		double bestRows = 0;
+		int bestBatch = 0;
+		int bestWorkers = 0;
+		for (int batchSize : BATCH_SIZES)
+		{
+			if (batchSize > examples && batchSize != BATCH_SIZES[0])
+				break;
+			for (int workers : threadCounts(processors))
+			{
+				final BatchedPredictor predictor = new BatchedPredictor(nn,batchSize,workers);
+				double rows = examples*measure(new Runnable()
+				{
+					public void run()
+					{
+						predictor.hypothesis(X);
+					}
+				});
+				predictor.shutdown();
+				System.out.println("inference batch "+batchSize+", "+workers+" workers: "+(long) rows+" rows/sec");
+				if (rows > bestRows)
+				{
+					bestRows = rows;
+					bestBatch = batchSize;
+					bestWorkers = workers;
+				}
+			}
+		}
+
+		final CostFunction plain = new BackPropCost(X,Y,topology,1);
+		double bestEvaluations = measure(new Runnable()
+		{
+			public void run()
+			{
+				plain.evaluateCost(theta);
+			}
+		});
+		System.out.println("training BackPropCost: "+bestEvaluations+" evaluations/sec");
+		int bestStages = 1;
+		int bestMicroBatch = 0;
+		for (int stages = 2; stages<=Math.min(topology.length-1,processors); stages++)
+		{
+			for (int microBatch : MICRO_BATCHES)
+			{
+				if (microBatch > examples)
+					break;
+				final PipelinedBackPropCost pipelined = new PipelinedBackPropCost(X,Y,topology,1,OutputType.SIGMOID,stages,microBatch);
+				double evaluations = measure(new Runnable()
+				{
+					public void run()
+					{
+						pipelined.evaluateCost(theta);
+					}
+				});
+				pipelined.shutdown();
+				System.out.println("training "+stages+" stages, micro-batch "+microBatch+": "+evaluations+" evaluations/sec");
+				if (evaluations > bestEvaluations)
+				{
+					bestEvaluations = evaluations;
+					bestStages = stages;
+					bestMicroBatch = microBatch;
+				}
+			}
+		}
+
+		System.out.println("RESULT inference.rowsPerSecond "+bestRows);
+		System.out.println("RESULT inference.batchSize "+bestBatch);
+		System.out.println("RESULT inference.workers "+bestWorkers);
+		System.out.println("RESULT training.stages "+bestStages);
+		System.out.println("RESULT training.microBatch "+bestMicroBatch);
+		System.out.println("RESULT training.evaluationsPerSecond "+bestEvaluations);
+	}
+
+	/**
+	 * Returns how many times per second the task runs (after one warm up run, over at least MIN_SECONDS and 3 runs).
+	 */
+	static double measure(Runnable task)
+	{
+		task.run();
+		long start = System.nanoTime();
+		int runs = 0;
+		long elapsed;
+		do
+		{
+			task.run();
+			runs++;
+			elapsed = System.nanoTime()-start;
+		}
+		while (elapsed < MIN_SECONDS*1e9 || runs < 3);
+		return runs/(elapsed/1e9);
+	}
+
+	/**
+	 * Returns 1, 2, 4, ... up to and including the given number of processors.
+	 */
+	static Vector<Integer> threadCounts(int processors)
+	{
+		Vector<Integer> counts = new Vector<Integer>();
+		for (int count = 1; count<processors; count*=2)
+		{
+			counts.add(count);
+		}
+		counts.add(processors);
+		return counts;
+	}
+
+	static int [] parseTopology(String text)
+	{
+		String [] parts = text.split(",");
+		int [] topology = new int[parts.length];
+		for (int i = 0; i<parts.length; i++)
+		{
+			topology[i] = Integer.parseInt(parts[i].trim());
+		}
+		if (topology.length < 2)
+			throw new NumberFormatException("A topology needs at least an input and an output layer: "+text);
+		return topology;
+	}
+
+	static double value(HashMap<String, Double> results, String key)
+	{
+		Double value = results.get(key);
+		return (value == null) ? 0 : value.doubleValue();
+	}
+}
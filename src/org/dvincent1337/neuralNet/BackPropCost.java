@@ -22,17 +22,28 @@ public class BackPropCost implements CostFunction
 	private DoubleMatrix Y;		//Training output matrix
 	private int[] topology;		//Neural network topology
 	private double lambda;		//Used for regularization
+	private OutputType output;	//Output layer activation, selects the cost
 	
 	/**
 	 * Constructs a cost function with given neural network variables.
 	 */
 	public BackPropCost(DoubleMatrix setX, DoubleMatrix setY,
 			int [] setTopology, double setLambda)
+	{
+		this(setX,setY,setTopology,setLambda,OutputType.SIGMOID);
+	}
+	
+	/**
+	 * Constructs a cost function with given neural network variables and output layer type.
+	 */
+	public BackPropCost(DoubleMatrix setX, DoubleMatrix setY,
+			int [] setTopology, double setLambda, OutputType setOutput)
 	{
 		X = new DoubleMatrix().copy(setX);
 		Y = new DoubleMatrix().copy(setY);
 		topology = setTopology;
 		lambda = setLambda;
+		output = setOutput;
 	}
 	
 	/**
@@ -41,50 +52,43 @@ public class BackPropCost implements CostFunction
 	 * 	network weights (possibly done with NeuralNetwork.reshapeToVector )
 	 * -Computes the partial derivatives of each element of the input matrix using backprop algorithm
 	 * 	http://en.wikipedia.org/wiki/Backpropagation
+	 */
+	@Override
+	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	{
+		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(input,topology);
+		Tuple<Double, Vector<DoubleMatrix>> unscaled = evaluateUnscaled(Theta,X,Y,output);
+		return regularize(Theta,unscaled.getFirst().doubleValue(),unscaled.getSecond(),lambda,X.getRows());
+	}
+	
+	/**
+	 * Runs forward and back prop over the given examples of a network with sigmoid outputs
+	 * (see evaluateUnscaled(Vector, DoubleMatrix, DoubleMatrix, OutputType))
+	 */
+	public static Tuple<Double, Vector<DoubleMatrix>> evaluateUnscaled(Vector<DoubleMatrix> Theta,
+			DoubleMatrix X, DoubleMatrix Y)
+	{
+		return evaluateUnscaled(Theta,X,Y,OutputType.SIGMOID);
+	}
+	
+	/**
+	 * Runs forward and back prop over the given examples without dividing by the number of examples and
+	 * without regularization. Returns a Tuple with first element the summed cost of every example, and the second element
+	 * the summed partial derivatives (DELTA) of each weight matrix.
+	 * 	Because both parts are plain sums, the results of disjoint sets of examples can be added together 
+	 * 	(for example by the workers of a DistributedCost) before calling regularize.
 	 * 
 	 * 	Prototyped with matlab initially (hence the comments with matlab code.)
 	 *  This is a vectorized implementation (fully utilizing linear algebra instead of using unnecessary loops)
 	 */
 	@SuppressWarnings("unchecked")
-	@Override
-	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	public static Tuple<Double, Vector<DoubleMatrix>> evaluateUnscaled(Vector<DoubleMatrix> Theta,
+			DoubleMatrix X, DoubleMatrix Y, OutputType output)
 	{
-		int num_layers = topology.length;
-		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(input,topology);
+		int num_layers = Theta.size()+1;
 		int m = X.getRows();
 		
-		//----------------|START FORWARD PROP AND FIND COST |-------------
-		
-		DoubleMatrix H = NeuralNetwork.forwardPropPredict(Theta,X);
-		
-		//matlab: J_part =( sum((Y.*((-1)*log(h)) - ((1-Y).*log(1-h))),2) );
-		DoubleMatrix J_part = new DoubleMatrix(m,1);	//Cost without regularization
-		J_part = (Y.mul(-1).mul(MatrixFunctions.log(H)).sub(
-				Y.mul(-1).add(1).mul(MatrixFunctions.log(H.mul(-1).add(1))))).rowSums();
-		double ThetaReg = 0;
-		
-		//Calculate regularization part of cost.
-		for (int i =0; i< (num_layers-1); i++)
-		{
-			DoubleMatrix currentTheta = Theta.get(i);
-			int []rows = new int[currentTheta.getRows()]; 
-			int [] cols = new int[currentTheta.getColumns() - 1];
-			for (int j = 0; j<currentTheta.getRows(); j++ )
-			{
-				rows[j]=j;
-			}
-			for (int j =1; j<currentTheta.getColumns();j++)
-			{
-				cols[j-1]= j;
-			}
-			ThetaReg += MatrixFunctions.pow(currentTheta.get(rows,cols),2).sum();
-		}
-		
-		double J = (J_part.sum() + (lambda)*ThetaReg)/(2*m); //Add the non regularization and regularization cost together 
-		
-		//----------------|FINISHED FORWARD PROP AND FOUND COST |-------------
-		
-		//----------------|START BACK PROP AND FIND GRADIANTS |-------------
+		//----------------|START FORWARD PROP |-------------
 		
 		Vector<DoubleMatrix> a = new Vector<DoubleMatrix>(); //Activations for each layer 
 		Vector<DoubleMatrix> z = new Vector<DoubleMatrix>(); //sigmoid of z are the activations for each layer
@@ -101,14 +105,21 @@ public class BackPropCost implements CostFunction
 			a.add(DoubleMatrix.concatHorizontally(DoubleMatrix.ones(newa.getRows(),1), newa));
 			z.add(a.lastElement().mmul(Theta.get(i).transpose()));
 		}
-		a.add(NeuralNetwork.sigmoid(z.lastElement()));
+		
+		//----------------|FIND COST AND OUTPUT ERROR |-------------
+		
+		//The output layer pre-activations are not needed after this, so they become the output error.
+		DoubleMatrix outputDelta = z.lastElement();
+		double J_sum = outputCost(outputDelta,Y,output);
+		
+		//----------------|START BACK PROP AND FIND GRADIANTS |-------------
 		
 		//With the DELTA and delta Lists, the first element corresponds to the last layer.
 		
 		Vector<DoubleMatrix> delta = new Vector<DoubleMatrix>(); //Error for each neuron on each layer
 		Vector<DoubleMatrix> DELTA = new Vector<DoubleMatrix>(); //A piece of the partial derivative of each weight matrix
 		//backprop on output layer
-		delta.add(new DoubleMatrix().copy((a.lastElement().sub(Y))));
+		delta.add(outputDelta);
 		//backprop on hidden layers
 		for (int i =(num_layers-2);i>=1;i--)
 		{
@@ -138,8 +149,117 @@ public class BackPropCost implements CostFunction
 		}
 		DELTA.add(delta.firstElement().transpose().mmul(a.firstElement()));
 		
-		//Calculate the gradients of each weight matrix
 		Collections.reverse(DELTA);
+		
+		return new Tuple<Double, Vector<DoubleMatrix>>(Double.valueOf(J_sum),DELTA);
+	}
+	
+	/**
+	 * Given the output layer before activation (z) and the correct outputs (Y), returns the summed cost of the given
+	 * output type and overwrites z with the error of the output layer (hypothesis - Y).
+	 */
+	public static double outputCost(DoubleMatrix z, DoubleMatrix Y, OutputType output)
+	{
+		if (output == OutputType.SOFTMAX)
+			return softmaxCrossEntropy(z,Y);
+		return sigmoidCrossEntropy(z,Y);
+	}
+	
+	/**
+	 * Given the output layer before activation (z) and the correct outputs (Y), returns the summed log loss of
+	 * independent sigmoid outputs and overwrites z with the error of the output layer, sigmoid(z) - Y.
+	 */
+	public static double sigmoidCrossEntropy(DoubleMatrix z, DoubleMatrix Y)
+	{
+		DoubleMatrix H = NeuralNetwork.sigmoid(z);
+		
+		//matlab: J_part =( sum((Y.*((-1)*log(h)) - ((1-Y).*log(1-h))),2) );
+		DoubleMatrix J_part = new DoubleMatrix(z.getRows(),1);	//Cost without regularization
+		J_part = (Y.mul(-1).mul(MatrixFunctions.log(H)).sub(
+				Y.mul(-1).add(1).mul(MatrixFunctions.log(H.mul(-1).add(1))))).rowSums();
+		z.copy(H.subi(Y));
+		return J_part.sum();
+	}
+	
+	/**
+	 * Fused, numerically stable softmax cross-entropy.
+	 * Given the output layer before activation (z) and the correct outputs (Y), returns the summed cost
+	 * 	sum_i sum_j Y_ij * (log(sum_k exp(z_ik)) - z_ij)
+	 * and overwrites z with the error of the output layer, softmax(z) .* rowSums(Y) - Y (softmax(z) - Y when each row of Y sums to 1).
+	 * 	The largest element of each row is subtracted before exponentiating (log-sum-exp), so the cost
+	 * 	never takes the log of 0 and exp never overflows. Each element is exponentiated once and no temporary matrices are allocated.
+	 */
+	public static double softmaxCrossEntropy(DoubleMatrix z, DoubleMatrix Y)
+	{
+		if (!z.sameSize(Y))
+			throw new IllegalArgumentException("Output layer is "+z.getRows()+"x"+z.getColumns()
+					+" but Y is "+Y.getRows()+"x"+Y.getColumns());
+		int rows = z.getRows();
+		double [] zd = z.data;
+		double [] yd = Y.data;
+		double cost = 0;
+		for (int i = 0; i<rows; i++)
+		{
+			double max = Double.NEGATIVE_INFINITY;
+			for (int j = i; j<zd.length; j+=rows)
+			{
+				if (zd[j] > max)
+					max = zd[j];
+			}
+			//exponentiate in place, keeping the sums needed for the cost: sum_j Y_ij*(z_ij-max) and sum_j Y_ij
+			double sum = 0;
+			double yz = 0;
+			double ySum = 0;
+			for (int j = i; j<zd.length; j+=rows)
+			{
+				double shifted = zd[j]-max;
+				double y = yd[j];
+				yz += y*shifted;
+				ySum += y;
+				zd[j] = Math.exp(shifted);
+				sum += zd[j];
+			}
+			cost += ySum*Math.log(sum) - yz;
+			double scale = ySum/sum;
+			for (int j = i; j<zd.length; j+=rows)
+			{
+				zd[j] = zd[j]*scale - yd[j];
+			}
+		}
+		return cost;
+	}
+	
+	/**
+	 * Adds the regularization to a summed cost and summed partial derivatives (as returned by evaluateUnscaled)
+	 * of m examples. Returns a Tuple with first element the Cost, and the second element the Gradients as a column matrix.
+	 */
+	public static Tuple<Double, DoubleMatrix> regularize(Vector<DoubleMatrix> Theta, double costSum,
+			Vector<DoubleMatrix> DELTA, double lambda, int m)
+	{
+		int num_layers = Theta.size()+1;
+		double ThetaReg = 0;
+		
+		//Calculate regularization part of cost.
+		for (int i =0; i< (num_layers-1); i++)
+		{
+			DoubleMatrix currentTheta = Theta.get(i);
+			int []rows = new int[currentTheta.getRows()]; 
+			int [] cols = new int[currentTheta.getColumns() - 1];
+			for (int j = 0; j<currentTheta.getRows(); j++ )
+			{
+				rows[j]=j;
+			}
+			for (int j =1; j<currentTheta.getColumns();j++)
+			{
+				cols[j-1]= j;
+			}
+			ThetaReg += MatrixFunctions.pow(currentTheta.get(rows,cols),2).sum();
+		}
+		
+		//matlab: J = sum(J_part)/m + lambda*ThetaReg/(2*m);
+		double J = costSum/m + (lambda)*ThetaReg/(2*m); //Add the non regularization and regularization cost together 
+		
+		//Calculate the gradients of each weight matrix
 		Vector<DoubleMatrix> gradList = new Vector<DoubleMatrix>();
 		for (int i =0 ; i<(num_layers-1); i++)
 		{
@@ -152,7 +272,7 @@ public class BackPropCost implements CostFunction
 		
 		DoubleMatrix gradiants = new DoubleMatrix().copy(NeuralNetwork.reshapeToVector(gradList));
 		
-		return new Tuple<Double, DoubleMatrix>(new Double(J),gradiants);
+		return new Tuple<Double, DoubleMatrix>(Double.valueOf(J),gradiants);
 	}
 	
 }
@@ -0,0 +1,232 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class BatchPipeline
+ * Produces shuffled and transformed mini-batches of a dataset on background threads, so a trainer can take
+ * the next batch as soon as it finished the last one.
+ *
+ * 	Usage:
+ * 		BatchPipeline pipeline = new BatchPipeline(X,Y,100,10,seed);	//batches of 100 rows, 10 epochs
+ * 		pipeline.addTransform(NormalizeTransform.fit(X));
+ * 		pipeline.addTransform(new ImageShiftTransform(20,20,1,0));
+ * 		pipeline.start();
+ * 		Tuple<DoubleMatrix, DoubleMatrix> batch;
+ * 		while ((batch = pipeline.nextBatch()) != null)
+ * 			... train on batch.getFirst() and batch.getSecond() ...
+ *
+ * 	The rows are shuffled at the start of every epoch with a Random seeded from the pipeline seed and the epoch,
+ * 	and the transforms of each batch get a Random seeded from the pipeline seed and the batch number. Batches are
+ * 	handed out in order, so the same seed gives the same batches no matter how many worker threads are used.
+ * 	At most "prefetch" batches are prepared ahead of the consumer, which bounds the memory used by the pipeline.
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class BatchPipeline
+{
+	private DoubleMatrix X;			//Input examples
+	private DoubleMatrix Y;			//Output examples
+	private int itsBatchSize;
+	private int itsEpochs;
+	private long itsSeed;
+	private int itsPrefetch = 4;	//Batches prepared ahead of the consumer
+	private int itsWorkers = 1;		//Threads preparing batches
+	private Vector<BatchTransform> itsTransforms = new Vector<BatchTransform>();
+
+	private int batchesPerEpoch;
+	private int totalBatches;
+	private int nextToPlan;			//Sequence number of the next batch a worker will prepare
+	private int nextToTake;			//Sequence number of the next batch handed to the consumer
+	private int [] itsOrder;		//Shuffled row order of the epoch being planned
+	private int itsOrderEpoch = -1;
+	private HashMap<Integer, Tuple<DoubleMatrix, DoubleMatrix>> ready = new HashMap<Integer, Tuple<DoubleMatrix, DoubleMatrix>>();
+	private Throwable failure;
+	private boolean closed;
+	private Thread [] threads;
+
+	/**
+	 * Constructs a pipeline over the given examples (the matrices are not copied and should not be modified while the pipeline runs).
+	 */
+	public BatchPipeline(DoubleMatrix setX, DoubleMatrix setY, int batchSize, int epochs, long seed)
+	{
+		if (setX.getRows() != setY.getRows())
+			throw new IllegalArgumentException("X has "+setX.getRows()+" rows but Y has "+setY.getRows());
+		X = setX;
+		Y = setY;
+		itsBatchSize = batchSize;
+		itsEpochs = epochs;
+		itsSeed = seed;
+		batchesPerEpoch = (X.getRows()+batchSize-1)/batchSize;
+		totalBatches = batchesPerEpoch*epochs;
+	}
+
+	/**
+	 * Adds a transform applied to every batch, after the transforms added before it.
+	 */
+	public void addTransform(BatchTransform transform)
+	{
+		itsTransforms.add(transform);
+	}
+
+	/**
+	 * Sets the number of batches prepared ahead of the consumer (the bound of the prefetch queue).
+	 */
+	public void setPrefetch(int prefetch)
+	{
+		itsPrefetch = Math.max(1,prefetch);
+	}
+
+	/**
+	 * Sets the number of threads preparing batches.
+	 */
+	public void setWorkers(int workers)
+	{
+		itsWorkers = Math.max(1,workers);
+	}
+
+	/**
+	 * Starts the worker threads.
+	 */
+	public void start()
+	{
+		threads = new Thread[itsWorkers];
+		for (int i = 0; i<itsWorkers; i++)
+		{
+			threads[i] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					work();
+				}
+			},"BatchPipeline-"+i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * Returns the next batch as a Tuple of input and output matrix, waiting if it is not ready yet.
+	 * Returns null after the last batch of the last epoch.
+	 */
+	public synchronized Tuple<DoubleMatrix, DoubleMatrix> nextBatch() throws InterruptedException
+	{
+		if (nextToTake >= totalBatches)
+			return null;
+		while (!ready.containsKey(nextToTake))
+		{
+			if (failure != null)
+				throw new RuntimeException("Batch preparation failed",failure);
+			if (closed)
+				return null;
+			wait();
+		}
+		Tuple<DoubleMatrix, DoubleMatrix> batch = ready.remove(nextToTake);
+		nextToTake++;
+		notifyAll();
+		return batch;
+	}
+
+	/**
+	 * Stops the worker threads. Batches that were not taken are dropped.
+	 */
+	public synchronized void close()
+	{
+		closed = true;
+		ready.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of batches in one epoch.
+	 */
+	public int getBatchesPerEpoch()
+	{
+		return batchesPerEpoch;
+	}
+
+	/**
+	 * Worker loop: claims the next batch number and row indices, then gathers and transforms the batch
+	 * without holding the lock.
+	 */
+	private void work()
+	{
+		try
+		{
+			while (true)
+			{
+				int sequence;
+				int [] rows;
+				synchronized (this)
+				{
+					while (!closed && nextToPlan < totalBatches && nextToPlan >= nextToTake+itsPrefetch)
+					{
+						wait();
+					}
+					if (closed || nextToPlan >= totalBatches)
+						return;
+					sequence = nextToPlan++;
+					rows = batchRows(sequence);
+				}
+
+				Tuple<DoubleMatrix, DoubleMatrix> batch = new Tuple<DoubleMatrix, DoubleMatrix>(X.getRows(rows),Y.getRows(rows));
+				Random random = new Random(itsSeed*31 + sequence);
+				for (int i = 0; i<itsTransforms.size(); i++)
+				{
+					batch = itsTransforms.get(i).transform(batch.getFirst(),batch.getSecond(),random);
+				}
+
+				synchronized (this)
+				{
+					if (closed)
+						return;
+					ready.put(sequence,batch);
+					notifyAll();
+				}
+			}
+		}
+		catch (Throwable e)
+		{
+			synchronized (this)
+			{
+				failure = e;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the row indices of the given batch, shuffling the rows when a new epoch starts.
+	 * Must be called holding the lock, with increasing sequence numbers.
+	 */
+	private int [] batchRows(int sequence)
+	{
+		int epoch = sequence/batchesPerEpoch;
+		int batch = sequence%batchesPerEpoch;
+		if (epoch != itsOrderEpoch)
+		{
+			int m = X.getRows();
+			itsOrder = new int[m];
+			for (int i = 0; i<m; i++)
+			{
+				itsOrder[i] = i;
+			}
+			Random random = new Random(itsSeed ^ (0x9E3779B97F4A7C15L*(epoch+1)));
+			for (int i = m-1; i>0; i--)	//Fisher-Yates shuffle
+			{
+				int j = random.nextInt(i+1);
+				int temp = itsOrder[i];
+				itsOrder[i] = itsOrder[j];
+				itsOrder[j] = temp;
+			}
+			itsOrderEpoch = epoch;
+		}
+		int first = batch*itsBatchSize;
+		int last = Math.min(first+itsBatchSize,itsOrder.length);
+		int [] rows = new int[last-first];
+		System.arraycopy(itsOrder,first,rows,0,rows.length);
+		return rows;
+	}
+}
@@ -0,0 +1,18 @@
+package org.dvincent1337.neuralNet;
+
+import java.util.Random;
+
+import org.jblas.DoubleMatrix;
+
+
+public interface BatchTransform 
+{
+
+	  /**
+	   *  Returns a Tuple with first element the transformed input matrix, and the second element the transformed output
+	   *  matrix of a mini-batch. The given matrices belong to the batch and may be modified in place.
+	   *  Any randomness should come from the given Random so batches are reproducible from the pipeline seed.
+	   */
+	  public Tuple<DoubleMatrix, DoubleMatrix> transform(DoubleMatrix X, DoubleMatrix Y, Random random);
+
+}
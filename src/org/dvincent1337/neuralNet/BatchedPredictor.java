@@ -0,0 +1,131 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class BatchedPredictor
+ * Runs forward prop of a neural network over large input matrices in batches of rows on a pool of worker threads.
+ *
+ * 	Each batch is one call of NeuralNetwork.forwardPropPredict, so the batch size sets the size of the matrix products
+ * 	and the workers run several of them at once. The best values depend on the machine and on the number of BLAS threads
+ * 	(see Autotuner); by default they come from TuningProfile.getDefault() when it was tuned for the network's topology.
+ *
+ * 	The network's weights are copied when the predictor is made.
+ */
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jblas.DoubleMatrix;
+
+public class BatchedPredictor
+{
+	private Vector<DoubleMatrix> itsTheta;
+	private OutputType itsOutputType;
+	private int itsBatchSize;
+	private int itsWorkers;
+	private ExecutorService pool;
+
+	/**
+	 * Constructs a predictor for the given network with the batch size and workers of the default tuning profile
+	 * (see TuningProfile.forTopology).
+	 */
+	public BatchedPredictor(NeuralNetwork nn)
+	{
+		this(nn,TuningProfile.getDefault().forTopology(nn.getTopology()));
+	}
+
+	private BatchedPredictor(NeuralNetwork nn, TuningProfile profile)
+	{
+		this(nn,profile.getInt(TuningProfile.INFERENCE_BATCH_SIZE,1024),profile.getInt(TuningProfile.INFERENCE_WORKERS,1));
+	}
+
+	/**
+	 * Constructs a predictor for the given network with the given batch size and number of worker threads.
+	 */
+	public BatchedPredictor(NeuralNetwork nn, int batchSize, int workers)
+	{
+		itsTheta = nn.getTheta();
+		itsOutputType = nn.getOutputType();
+		itsBatchSize = Math.max(1,batchSize);
+		itsWorkers = Math.max(1,workers);
+		pool = Executors.newFixedThreadPool(itsWorkers,new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r,"BatchedPredictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the hypothesis of the network for the given inputs (see NeuralNetwork.hypothesisFP)
+	 */
+	public DoubleMatrix hypothesis(final DoubleMatrix X)
+	{
+		final int m = X.getRows();
+		final DoubleMatrix result = new DoubleMatrix(m,itsTheta.lastElement().getRows());
+		Vector<Future<Object>> futures = new Vector<Future<Object>>();
+		for (int first = 0; first<m; first+=itsBatchSize)
+		{
+			final int [] rows = CompactDataset.range(first,Math.min(itsBatchSize,m-first));
+			futures.add(pool.submit(new Callable<Object>()
+			{
+				public Object call()
+				{
+					DoubleMatrix part = NeuralNetwork.forwardPropPredict(itsTheta,X.getRows(rows),itsOutputType);
+					for (int j = 0; j<part.getColumns(); j++)
+					{
+						System.arraycopy(part.data,j*rows.length,result.data,j*m+rows[0],rows.length);
+					}
+					return null;
+				}
+			}));
+		}
+		try
+		{
+			for (Future<Object> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			for (Future<Object> future : futures)
+			{
+				future.cancel(true);
+			}
+			throw new RuntimeException("Batched prediction failed",e);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the predicted class of each example.
+	 */
+	public int [] predictClasses(DoubleMatrix X)
+	{
+		return hypothesis(X).rowArgmaxs();
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+
+	public int getBatchSize()
+	{
+		return itsBatchSize;
+	}
+	public int getWorkers()
+	{
+		return itsWorkers;
+	}
+}
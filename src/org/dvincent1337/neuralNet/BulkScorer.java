@@ -0,0 +1,242 @@
+package org.dvincent1337.neuralNet;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.jblas.DoubleMatrix;
+
+/*
+* Scores an input matrix file of any size with a trained neural network, writing the predicted class of each row.
+*
+* 	The calling thread reads the input "chunk" rows at a time and hands each chunk to a pool of worker threads, which
+* 	parse the rows and run forward prop; a single writer thread writes the predictions of the chunks in input order.
+* 	Reading, scoring and writing overlap, and at most 2*workers chunks are in flight, so the memory used does not depend
+* 	on the size of the file. The chunk size and workers default to the inference settings of the TuningProfile when
+* 	it was tuned for the network's topology.
+*
+* 	Output formats:
+* 		text:	one line per row with the index of the predicted class
+* 		binary:	one big-endian int per row with the index of the predicted class
+*
+* 	The weight matrices are read from text files in the format of NeuralNetwork.getMatrixFromTextFile
+* 	(trained weights can be saved with NeuralNetwork.writeMatrixToTextFile).
+*/
+
+
+public class BulkScorer
+{
+	static final long REPORT_NANOS = 10000000000L;	//Progress is printed every 10 seconds
+	private static final Future<int[]> END = new FutureTask<int[]>(new Callable<int[]>()
+	{
+		public int[] call()
+		{
+			return null;
+		}
+	});
+
+	private Vector<DoubleMatrix> itsTheta;
+	private int itsChunkSize;
+	private int itsWorkers;
+	private boolean itsBinary;
+	private volatile Exception failure;		//First error of a worker or the writer
+
+	/**
+	 * Constructs a scorer with the given weights, rows per chunk, worker threads and output format.
+	 */
+	public BulkScorer(Vector<DoubleMatrix> Theta, int chunkSize, int workers, boolean binary)
+	{
+		itsTheta = NeuralNetwork.copyTheta(Theta);
+		itsChunkSize = Math.max(1,chunkSize);
+		itsWorkers = Math.max(1,workers);
+		itsBinary = binary;
+	}
+
+	/*
+	 * Args: [input matrix] [output file] [text|binary] [weight matrix file]...
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 4 || !(args[2].equals("text") || args[2].equals("binary")))
+		{
+			System.out.println("Please include the arguments [input matrix] [output file] [text|binary] [weight matrix file]...");
+			return;
+		}
+		try
+		{
+			Vector<DoubleMatrix> Theta = new Vector<DoubleMatrix>();
+			for (int i = 3; i<args.length; i++)
+			{
+				Theta.add(NeuralNetwork.getMatrixFromTextFile(args[i]));
+			}
+			TuningProfile profile = TuningProfile.getDefault().forTopology(NeuralNetwork.extractTopologyFromWeights(Theta));
+			BulkScorer scorer = new BulkScorer(Theta,profile.getInt(TuningProfile.INFERENCE_BATCH_SIZE,1024),
+					profile.getInt(TuningProfile.INFERENCE_WORKERS,1),args[2].equals("binary"));
+
+			long start = System.nanoTime();
+			BufferedReader reader = new BufferedReader(new FileReader(args[0]),1<<16);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]),1<<16);
+			long rows;
+			try
+			{
+				rows = scorer.score(reader,out);
+			}
+			finally
+			{
+				reader.close();
+				out.close();
+			}
+			double seconds = (System.nanoTime()-start)/1e9;
+			System.out.println("Scored "+rows+" rows in "+seconds+" seconds ("+(long) (rows/seconds)+" rows/sec)");
+		}
+		catch (NumberFormatException | IOException | InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Scores every row read from the reader and writes the predictions to out (which is flushed but not closed).
+	 * Returns the number of rows scored.
+	 */
+	public long score(BufferedReader reader, OutputStream out) throws IOException, InterruptedException
+	{
+		final int features = itsTheta.firstElement().getColumns()-1;
+		final ArrayBlockingQueue<Future<int[]>> inFlight = new ArrayBlockingQueue<Future<int[]>>(2*itsWorkers);
+		final DataOutputStream output = new DataOutputStream(out);
+		final long [] written = new long[1];
+		failure = null;
+
+		ExecutorService pool = Executors.newFixedThreadPool(itsWorkers,new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r,"BulkScorer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		Thread writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				long start = System.nanoTime();
+				long lastReport = start;
+				try
+				{
+					Future<int[]> chunk;
+					while ((chunk = inFlight.take()) != END)
+					{
+						if (failure != null)
+							continue;	//keep taking chunks so the reader is never blocked
+						try
+						{
+							written[0] += write(chunk.get(),output);
+						}
+						catch (Exception e)
+						{
+							failure = e;
+							continue;
+						}
+						long now = System.nanoTime();
+						if (now-lastReport > REPORT_NANOS)
+						{
+							System.out.println(written[0]+" rows, "+(long) (written[0]/((now-start)/1e9))+" rows/sec");
+							lastReport = now;
+						}
+					}
+					output.flush();
+				}
+				catch (InterruptedException | IOException e)
+				{
+					failure = e;
+				}
+			}
+		},"BulkScorer writer");
+		writer.start();
+
+		long row = 0;
+		try
+		{
+			while (failure == null)
+			{
+				final String [] lines = new String[itsChunkSize];
+				int count = 0;
+				String line;
+				while (count < itsChunkSize && (line = reader.readLine()) != null)
+				{
+					if (!line.trim().isEmpty())
+						lines[count++] = line;
+				}
+				if (count == 0)
+					break;
+				final int rows = count;
+				final long firstRow = row;
+				inFlight.put(pool.submit(new Callable<int[]>()
+				{
+					public int[] call() throws IOException
+					{
+						DoubleMatrix X = new DoubleMatrix(rows,features);
+						for (int i = 0; i<rows; i++)
+						{
+							double [] values = CompactDataset.parseRow(lines[i]);
+							if (values.length != features)
+								throw new IOException("Row "+(firstRow+i)+" has "+values.length+" columns, expected "+features);
+							for (int j = 0; j<features; j++)
+							{
+								X.data[i+j*rows] = values[j];
+							}
+						}
+						return NeuralNetwork.forwardPropOutput(itsTheta,X).rowArgmaxs();
+					}
+				}));
+				row += count;
+			}
+		}
+		finally
+		{
+			inFlight.put(END);
+			writer.join();
+			pool.shutdownNow();
+		}
+		if (failure != null)
+			throw new IOException("Scoring failed",failure);
+		return written[0];
+	}
+
+	/**
+	 * Writes the predicted classes of one chunk. Returns the number of rows written.
+	 */
+	private int write(int [] classes, DataOutputStream output) throws IOException
+	{
+		if (itsBinary)
+		{
+			for (int i = 0; i<classes.length; i++)
+			{
+				output.writeInt(classes[i]);
+			}
+		}
+		else
+		{
+			StringBuilder text = new StringBuilder(classes.length*3);
+			for (int i = 0; i<classes.length; i++)
+			{
+				text.append(classes[i]).append('\n');
+			}
+			output.write(text.toString().getBytes(Charset.forName("US-ASCII")));
+		}
+		return classes.length;
+	}
+}
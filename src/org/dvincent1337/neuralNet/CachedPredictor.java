@@ -0,0 +1,73 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class CachedPredictor
+ * Runs a neural network's forward prop through a PredictionCache, so repeated input rows are answered from the
+ * cache and only the rows that miss are run through hypothesisFP (as one batch).
+ *
+ * 	The cache is keyed with the network's version, so after setTheta or training the old entries are dropped
+ * 	automatically and no stale prediction is ever returned.
+ */
+
+import org.jblas.DoubleMatrix;
+
+public class CachedPredictor
+{
+	private NeuralNetwork itsNetwork;
+	private PredictionCache itsCache;
+
+	/**
+	 * Constructs a predictor for the given network with a cache of up to capacity rows.
+	 */
+	public CachedPredictor(NeuralNetwork nn, int capacity)
+	{
+		itsNetwork = nn;
+		int [] topology = nn.getTopology();
+		itsCache = new PredictionCache(capacity,topology[topology.length-1]);
+	}
+
+	/**
+	 * Returns the hypothesis of each row of the inputs (see NeuralNetwork.hypothesisFP)
+	 */
+	public DoubleMatrix hypothesisFP(DoubleMatrix inputs)
+	{
+		long version = itsNetwork.getVersion();
+		int rows = inputs.getRows();
+		int [] topology = itsNetwork.getTopology();
+		DoubleMatrix result = new DoubleMatrix(rows,topology[topology.length-1]);
+		long [][] hashes = PredictionCache.hashRows(inputs,version);
+		int [] misses = new int[rows];
+		int missCount = itsCache.lookup(hashes,version,result,misses);
+		if (missCount == 0)
+			return result;
+
+		int [] missRows = new int[missCount];
+		System.arraycopy(misses,0,missRows,0,missCount);
+		DoubleMatrix computed = itsNetwork.hypothesisFP(missCount == rows ? inputs : inputs.getRows(missRows));
+		if (itsNetwork.getVersion() == version)
+			itsCache.store(hashes,missRows,missCount,version,computed);
+		for (int r = 0; r<missCount; r++)
+		{
+			for (int j = 0; j<result.getColumns(); j++)
+			{
+				result.put(missRows[r],j,computed.get(r,j));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the predicted class index of each row of the inputs (see NeuralNetwork.predictClasses)
+	 */
+	public int [] predictClasses(DoubleMatrix inputs)
+	{
+		return hypothesisFP(inputs).rowArgmaxs();
+	}
+
+	/**
+	 * Returns the cache (for its hit rate and memory metrics)
+	 */
+	public PredictionCache getCache()
+	{
+		return itsCache;
+	}
+}
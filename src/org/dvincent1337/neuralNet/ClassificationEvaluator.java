@@ -0,0 +1,128 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class ClassificationEvaluator
+ * Accumulates the accuracy and confusion matrix of predicted class indices (for example from
+ * NeuralNetwork.predictClasses) batch by batch, so a large test set can be scored without building
+ * one-hot prediction or output matrices.
+ */
+
+import java.util.Arrays;
+
+public class ClassificationEvaluator
+{
+	private long [][] itsConfusion;	//itsConfusion[actual][predicted] counts
+	private long itsCorrect;
+	private long itsCount;
+
+	/**
+	 * Constructs an evaluator for classes 0 ... classes-1
+	 */
+	public ClassificationEvaluator(int classes)
+	{
+		itsConfusion = new long[classes][classes];
+	}
+
+	/**
+	 * Adds one prediction.
+	 */
+	public void add(int predicted, int actual)
+	{
+		itsConfusion[actual][predicted]++;
+		if (predicted == actual)
+			itsCorrect++;
+		itsCount++;
+	}
+
+	/**
+	 * Adds a batch of predictions with their correct class indices.
+	 */
+	public void add(int [] predicted, int [] actual)
+	{
+		if (predicted.length != actual.length)
+			throw new IllegalArgumentException(predicted.length+" predictions but "+actual.length+" labels");
+		for (int i = 0; i<predicted.length; i++)
+		{
+			add(predicted[i],actual[i]);
+		}
+	}
+
+	/**
+	 * Returns the accuracy in percent (the same scale as NeuralNetwork.computeAccuracy)
+	 */
+	public double getAccuracy()
+	{
+		return itsCount == 0 ? 0 : ((double) itsCorrect)*100/itsCount;
+	}
+
+	/**
+	 * Returns the fraction of the examples of the given class that were predicted as that class.
+	 */
+	public double getRecall(int label)
+	{
+		long total = 0;
+		for (int j = 0; j<itsConfusion.length; j++)
+		{
+			total += itsConfusion[label][j];
+		}
+		return total == 0 ? 0 : ((double) itsConfusion[label][label])/total;
+	}
+
+	/**
+	 * Returns the fraction of the predictions of the given class that were correct.
+	 */
+	public double getPrecision(int label)
+	{
+		long total = 0;
+		for (int i = 0; i<itsConfusion.length; i++)
+		{
+			total += itsConfusion[i][label];
+		}
+		return total == 0 ? 0 : ((double) itsConfusion[label][label])/total;
+	}
+
+	/**
+	 * Returns a copy of the confusion matrix, indexed [actual class][predicted class].
+	 */
+	public long [][] getConfusionMatrix()
+	{
+		long [][] result = new long[itsConfusion.length][];
+		for (int i = 0; i<itsConfusion.length; i++)
+		{
+			result[i] = itsConfusion[i].clone();
+		}
+		return result;
+	}
+
+	public long getCount()
+	{
+		return itsCount;
+	}
+
+	/**
+	 * Clears all counts.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i<itsConfusion.length; i++)
+		{
+			Arrays.fill(itsConfusion[i],0);
+		}
+		itsCorrect = 0;
+		itsCount = 0;
+	}
+
+	/**
+	 * Prints the confusion matrix to the standard output, one row per actual class.
+	 */
+	public void printConfusionMatrix()
+	{
+		for (int i = 0; i<itsConfusion.length; i++)
+		{
+			for (int j = 0; j<itsConfusion.length; j++)
+			{
+				System.out.print(itsConfusion[i][j] +"   ");
+			}
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class CompactBackPropCost
+ * This class implements CostFunction with the same cost and gradients as BackPropCost, over the examples of a
+ * CompactDataset instead of double matrices.
+ *
+ * 	The examples are processed in chunks of "chunkSize" rows: each chunk is decoded into reusable double matrices
+ * 	right before forward prop, and the summed costs and partial derivatives of the chunks (see
+ * 	BackPropCost.evaluateUnscaled) are added before regularizing. So only one chunk of the training set is ever held as
+ * 	doubles, and a training set several times larger than the heap allows as doubles can be trained on.
+ *
+ * 	The results match a BackPropCost over the decoded examples up to floating point rounding. Each thread that calls
+ * 	evaluateCost gets its own decode buffers, so evaluations may run in parallel (for example in GradientCheck).
+ */
+
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class CompactBackPropCost implements CostFunction
+{
+	private CompactDataset data;	//Training examples
+	private int[] topology;		//Neural network topology
+	private double lambda;		//Used for regularization
+	private OutputType output;	//Output layer activation, selects the cost
+	private int [][] chunks;	//Rows of each chunk
+	private ThreadLocal<DoubleMatrix[]> buffers = new ThreadLocal<DoubleMatrix[]>()	//Decoded X and Y of a full and of the last chunk
+	{
+		@Override
+		protected DoubleMatrix[] initialValue()
+		{
+			return new DoubleMatrix[4];
+		}
+	};
+
+	/**
+	 * Constructs a cost function with given neural network variables, decoding chunkSize examples at a time.
+	 */
+	public CompactBackPropCost(CompactDataset setData, int [] setTopology, double setLambda,
+			OutputType setOutput, int chunkSize)
+	{
+		data = setData;
+		topology = setTopology;
+		lambda = setLambda;
+		output = setOutput;
+		int m = data.getRows();
+		chunkSize = Math.max(1,Math.min(chunkSize,m));
+		chunks = new int[(m+chunkSize-1)/chunkSize][];
+		for (int c = 0; c<chunks.length; c++)
+		{
+			int first = c*chunkSize;
+			chunks[c] = CompactDataset.range(first,Math.min(chunkSize,m-first));
+		}
+	}
+
+	@Override
+	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	{
+		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(input,topology);
+		DoubleMatrix [] decoded = buffers.get();
+		double costSum = 0;
+		Vector<DoubleMatrix> DELTA = null;
+		for (int c = 0; c<chunks.length; c++)
+		{
+			//the last chunk may be shorter, so it keeps its own pair of buffers
+			int b = (c == chunks.length-1 && c > 0 && chunks[c].length != chunks[0].length) ? 2 : 0;
+			decoded[b] = data.decodeInputs(chunks[c],decoded[b]);
+			decoded[b+1] = data.decodeOutputs(chunks[c],decoded[b+1]);
+			Tuple<Double, Vector<DoubleMatrix>> part = BackPropCost.evaluateUnscaled(Theta,decoded[b],decoded[b+1],output);
+			costSum += part.getFirst().doubleValue();
+			if (DELTA == null)
+				DELTA = part.getSecond();
+			else
+			{
+				for (int i = 0; i<DELTA.size(); i++)
+				{
+					DELTA.get(i).addi(part.getSecond().get(i));
+				}
+			}
+		}
+		return BackPropCost.regularize(Theta,costSum,DELTA,lambda,data.getRows());
+	}
+}
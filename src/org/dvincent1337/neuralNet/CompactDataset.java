@@ -0,0 +1,357 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class CompactDataset
+ * Training examples stored in a compact form and decoded into double matrices one batch at a time.
+ *
+ * 	The inputs are stored example by example either as
+ * 		UINT8:	one byte per value, value = offset + scale*byte, with offset and scale chosen from the smallest and
+ * 				largest input (exact for 8 bit data such as grayscale pixels, otherwise within scale/2)
+ * 		FP16:	IEEE 754 half precision, two bytes per value (about 3 significant digits)
+ * 	and the outputs are stored as the class index of each example instead of a one-hot row (digitOutput.txt
+ * 	uses 10 doubles per example where one index is enough). Compared with the double matrices BackPropCost copies,
+ * 	the inputs take 1/8 (UINT8) or 1/4 (FP16) of the memory and the outputs 1/(2*classes).
+ *
+ * 	decodeInputs and decodeOutputs fill a caller's buffer, so a trainer can decode every batch into the same
+ * 	matrices just before using them (see CompactBackPropCost).
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.jblas.DoubleMatrix;
+
+public class CompactDataset
+{
+	/**
+	 * How input values are stored.
+	 */
+	public enum Encoding
+	{
+		UINT8,
+		FP16
+	}
+
+	private int itsRows;
+	private int itsColumns;
+	private int itsClasses;
+	private Encoding itsEncoding;
+	private byte [] itsBytes;		//UINT8 inputs, row by row
+	private short [] itsHalves;		//FP16 inputs, row by row
+	private double itsOffset;		//UINT8: value of byte 0
+	private double itsScale;		//UINT8: value step of one byte
+	private int [] itsLabels;		//Class index of each example
+
+	private CompactDataset(int rows, int columns, int classes, Encoding encoding)
+	{
+		itsRows = rows;
+		itsColumns = columns;
+		itsClasses = classes;
+		itsEncoding = encoding;
+		if (encoding == Encoding.UINT8)
+			itsBytes = new byte[rows*columns];
+		else
+			itsHalves = new short[rows*columns];
+		itsLabels = new int[rows];
+	}
+
+	/**
+	 * Constructs a compact copy of an input matrix and a one-hot output matrix.
+	 */
+	public static CompactDataset fromMatrices(DoubleMatrix X, DoubleMatrix Y, Encoding encoding)
+	{
+		int rows = X.getRows();
+		int cols = X.getColumns();
+		CompactDataset result = new CompactDataset(rows,cols,Y.getColumns(),encoding);
+		result.setRange(X.min(),X.max());
+		double [] row = new double[cols];
+		for (int i = 0; i<rows; i++)
+		{
+			for (int j = 0; j<cols; j++)
+			{
+				row[j] = X.data[i+j*rows];
+			}
+			result.encodeRow(i,row);
+		}
+		System.arraycopy(Y.rowArgmaxs(),0,result.itsLabels,0,rows);
+		return result;
+	}
+
+	/**
+	 * Loads a compact dataset from text files in the format of NeuralNetwork.getMatrixFromTextFile, without ever
+	 * holding the inputs as doubles. The input file is read twice (once to find its size and range).
+	 */
+	public static CompactDataset fromTextFiles(String inputFile, String outputFile, Encoding encoding) throws NumberFormatException, IOException
+	{
+		//First pass: size and range of the inputs
+		int rows = 0;
+		int cols = -1;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				double [] row = parseRow(line);
+				if (row.length == 0)
+					continue;
+				if (cols < 0)
+					cols = row.length;
+				else if (row.length != cols)
+					throw new IOException("Row "+rows+" of "+inputFile+" has "+row.length+" columns, expected "+cols);
+				for (int j = 0; j<cols; j++)
+				{
+					min = Math.min(min,row[j]);
+					max = Math.max(max,row[j]);
+				}
+				rows++;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		int [] labels = new int[rows];
+		int classes = 0;
+		reader = new BufferedReader(new FileReader(outputFile));
+		try
+		{
+			String line;
+			int i = 0;
+			while ((line = reader.readLine()) != null && i < rows)
+			{
+				double [] row = parseRow(line);
+				if (row.length == 0)
+					continue;
+				classes = Math.max(classes,row.length);
+				int best = 0;
+				for (int j = 1; j<row.length; j++)
+				{
+					if (row[j] > row[best])
+						best = j;
+				}
+				labels[i++] = best;
+			}
+			if (i != rows)
+				throw new IOException(outputFile+" has "+i+" rows, expected "+rows);
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		//Second pass: encode the inputs
+		CompactDataset result = new CompactDataset(rows,cols,classes,encoding);
+		result.setRange(min,max);
+		result.itsLabels = labels;
+		reader = new BufferedReader(new FileReader(inputFile));
+		try
+		{
+			String line;
+			int i = 0;
+			while ((line = reader.readLine()) != null && i < rows)
+			{
+				double [] row = parseRow(line);
+				if (row.length == 0)
+					continue;
+				result.encodeRow(i++,row);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the inputs of the given examples into buffer (one example per row) and returns it.
+	 * If buffer is null or has the wrong size a new matrix is returned instead.
+	 */
+	public DoubleMatrix decodeInputs(int [] rows, DoubleMatrix buffer)
+	{
+		int count = rows.length;
+		if (buffer == null || buffer.getRows() != count || buffer.getColumns() != itsColumns)
+			buffer = new DoubleMatrix(count,itsColumns);
+		double [] data = buffer.data;
+		for (int r = 0; r<count; r++)
+		{
+			int start = rows[r]*itsColumns;
+			if (itsEncoding == Encoding.UINT8)
+			{
+				for (int j = 0; j<itsColumns; j++)
+				{
+					data[r+j*count] = itsOffset + itsScale*(itsBytes[start+j] & 0xff);
+				}
+			}
+			else
+			{
+				for (int j = 0; j<itsColumns; j++)
+				{
+					data[r+j*count] = halfToFloat(itsHalves[start+j]);
+				}
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Decodes the one-hot outputs of the given examples into buffer and returns it.
+	 * If buffer is null or has the wrong size a new matrix is returned instead.
+	 */
+	public DoubleMatrix decodeOutputs(int [] rows, DoubleMatrix buffer)
+	{
+		int count = rows.length;
+		if (buffer == null || buffer.getRows() != count || buffer.getColumns() != itsClasses)
+			buffer = new DoubleMatrix(count,itsClasses);
+		else
+			buffer.fill(0);
+		for (int r = 0; r<count; r++)
+		{
+			buffer.put(r,itsLabels[rows[r]],1);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns the row indices first ... first+count-1 (for decoding consecutive examples).
+	 */
+	public static int [] range(int first, int count)
+	{
+		int [] rows = new int[count];
+		for (int i = 0; i<count; i++)
+		{
+			rows[i] = first+i;
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns a copy of the class index of every example.
+	 */
+	public int [] getLabels()
+	{
+		return itsLabels.clone();
+	}
+
+	public int getRows()
+	{
+		return itsRows;
+	}
+	public int getColumns()
+	{
+		return itsColumns;
+	}
+	public int getClasses()
+	{
+		return itsClasses;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the stored inputs and labels.
+	 */
+	public long getMemoryBytes()
+	{
+		long inputs = (itsEncoding == Encoding.UINT8) ? itsBytes.length : 2L*itsHalves.length;
+		return inputs + 4L*itsLabels.length;
+	}
+
+	private void setRange(double min, double max)
+	{
+		itsOffset = min;
+		itsScale = (max > min) ? (max-min)/255 : 1;
+	}
+
+	private void encodeRow(int i, double [] row)
+	{
+		int start = i*itsColumns;
+		for (int j = 0; j<itsColumns; j++)
+		{
+			if (itsEncoding == Encoding.UINT8)
+			{
+				long q = Math.round((row[j]-itsOffset)/itsScale);
+				itsBytes[start+j] = (byte) Math.max(0,Math.min(255,q));
+			}
+			else
+			{
+				itsHalves[start+j] = floatToHalf((float) row[j]);
+			}
+		}
+	}
+
+	/**
+	 * Parses a space separated row of numbers.
+	 */
+	static double [] parseRow(String line)
+	{
+		String [] tokens = line.trim().split(" +");
+		if (tokens.length == 1 && tokens[0].isEmpty())
+			return new double[0];
+		double [] row = new double[tokens.length];
+		for (int j = 0; j<tokens.length; j++)
+		{
+			row[j] = Double.parseDouble(tokens[j]);
+		}
+		return row;
+	}
+
+	/**
+	 * Converts a float to IEEE 754 half precision bits, rounding to the nearest value (ties to even).
+	 * Values too large for half precision become infinity.
+	 */
+	public static short floatToHalf(float f)
+	{
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exp = (bits >>> 23) & 0xff;
+		int mant = bits & 0x7fffff;
+		if (exp == 0xff)	//infinity or NaN
+			return (short) (sign | 0x7c00 | (mant != 0 ? 0x200 : 0));
+		int e = exp - 127 + 15;
+		if (e >= 31)
+			return (short) (sign | 0x7c00);
+		int shift;
+		int result;
+		if (e <= 0)	//half precision subnormal (or 0)
+		{
+			if (e < -10)
+				return (short) sign;
+			mant |= 0x800000;
+			shift = 14 - e;
+			result = 0;
+		}
+		else
+		{
+			shift = 13;
+			result = e << 10;
+		}
+		int half = mant >> shift;
+		int rest = mant & ((1 << shift) - 1);
+		int halfway = 1 << (shift - 1);
+		if (rest > halfway || (rest == halfway && (half & 1) != 0))
+			half++;	//a carry out of the mantissa correctly moves to the next exponent
+		return (short) (sign | (result + half));
+	}
+
+	/**
+	 * Converts IEEE 754 half precision bits to a float (exactly).
+	 */
+	public static float halfToFloat(short h)
+	{
+		int bits = h & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exp = (bits >>> 10) & 0x1f;
+		int mant = bits & 0x3ff;
+		if (exp == 0)	//subnormal or 0: mant * 2^-24
+		{
+			float value = mant * 5.9604645e-8f;
+			return sign != 0 ? -value : value;
+		}
+		if (exp == 31)
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+		return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+	}
+}
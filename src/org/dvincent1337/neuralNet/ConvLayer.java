@@ -0,0 +1,171 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class ConvLayer
+ * A 2D convolution sigmoid layer: every filter is a size x size window over all input channels, moved over every
+ * position of the image where it fits (stride 1, no padding), giving one output channel per filter of
+ * (height-size+1) x (width-size+1) values.
+ *
+ * 	The convolution runs as one matrix product (im2col): the input windows of every position of every example are
+ * 	copied into the rows of a patch matrix P with a leading ones column, and the outputs are P*Theta', where Theta
+ * 	holds one filter per row (bias first, then the window values channel by channel, column by column). The patch rows
+ * 	are ordered position by position and example by example within a position, so that P*Theta' stored column by column
+ * 	is already the m x (filters*positions) output matrix in the image layout of Layer, and the error of the outputs is
+ * 	read back as a (positions*m) x filters matrix without copying.
+ * 	Back prop uses the same patch matrix: DELTA += delta'*P, and the input error is delta*Theta (without the bias column)
+ * 	added back onto the window positions (col2im).
+ *
+ * 	The patch matrix has (positions*m) x (channels*size*size+1) values, so LayeredCost processes the examples in chunks.
+ */
+
+import java.util.Arrays;
+
+import org.jblas.DoubleMatrix;
+
+public class ConvLayer implements Layer
+{
+	private int itsChannels;
+	private int itsHeight;
+	private int itsWidth;
+	private int itsFilters;
+	private int itsSize;		//Filter width and height
+	private int itsOutHeight;
+	private int itsOutWidth;
+
+	/**
+	 * Constructs a layer of the given number of size x size filters over images of the given channels, height and width.
+	 */
+	public ConvLayer(int channels, int height, int width, int filters, int size)
+	{
+		if (size > height || size > width)
+			throw new IllegalArgumentException("Filter size "+size+" does not fit a "+height+"x"+width+" image");
+		itsChannels = channels;
+		itsHeight = height;
+		itsWidth = width;
+		itsFilters = filters;
+		itsSize = size;
+		itsOutHeight = height-size+1;
+		itsOutWidth = width-size+1;
+	}
+
+	public int getInputSize()
+	{
+		return itsChannels*itsHeight*itsWidth;
+	}
+	public int getOutputSize()
+	{
+		return itsFilters*itsOutHeight*itsOutWidth;
+	}
+	public int getWeightRows()
+	{
+		return itsFilters;
+	}
+	public int getWeightColumns()
+	{
+		return itsChannels*itsSize*itsSize+1;
+	}
+	public int getOutputHeight()
+	{
+		return itsOutHeight;
+	}
+	public int getOutputWidth()
+	{
+		return itsOutWidth;
+	}
+
+	public DoubleMatrix forward(DoubleMatrix Theta, DoubleMatrix a)
+	{
+		int m = a.getRows();
+		DoubleMatrix z = im2col(a).mmul(Theta.transpose());
+		return new DoubleMatrix(m,getOutputSize(),z.data);
+	}
+
+	public DoubleMatrix activate(DoubleMatrix z)
+	{
+		return NeuralNetwork.sigmoid(z);
+	}
+
+	public DoubleMatrix backward(DoubleMatrix Theta, DoubleMatrix a, DoubleMatrix z, DoubleMatrix delta,
+			DoubleMatrix DELTA, boolean propagate)
+	{
+		int m = a.getRows();
+		int positions = itsOutHeight*itsOutWidth;
+		DoubleMatrix patchDelta = new DoubleMatrix(positions*m,itsFilters,delta.data);
+		DELTA.addi(patchDelta.transpose().mmul(im2col(a)));
+		if (!propagate)
+			return null;
+		DoubleMatrix ThetaNoBias = new DoubleMatrix(itsFilters,getWeightColumns()-1);
+		System.arraycopy(Theta.data,itsFilters,ThetaNoBias.data,0,ThetaNoBias.getLength());
+		return col2im(patchDelta.mmul(ThetaNoBias),m);
+	}
+
+	public DoubleMatrix activationGradient(DoubleMatrix z, DoubleMatrix a, DoubleMatrix gradient)
+	{
+		return gradient.muli(a.mul(a.rsub(1)));
+	}
+
+	/**
+	 * Returns the (positions*m) x (channels*size*size+1) patch matrix of the given images.
+	 */
+	private DoubleMatrix im2col(DoubleMatrix a)
+	{
+		int m = a.getRows();
+		int patchRows = itsOutHeight*itsOutWidth*m;
+		DoubleMatrix patches = new DoubleMatrix(patchRows,getWeightColumns());
+		Arrays.fill(patches.data,0,patchRows,1);
+		int column = 1;
+		for (int c = 0; c<itsChannels; c++)
+		{
+			for (int dx = 0; dx<itsSize; dx++)
+			{
+				for (int dy = 0; dy<itsSize; dy++)
+				{
+					for (int ox = 0; ox<itsOutWidth; ox++)
+					{
+						for (int oy = 0; oy<itsOutHeight; oy++)
+						{
+							int pixel = c*itsHeight*itsWidth + (ox+dx)*itsHeight + oy+dy;
+							int position = ox*itsOutHeight + oy;
+							System.arraycopy(a.data,pixel*m,patches.data,column*patchRows+position*m,m);
+						}
+					}
+					column++;
+				}
+			}
+		}
+		return patches;
+	}
+
+	/**
+	 * Adds the window values of a (positions*m) x (channels*size*size) patch error matrix back onto the images they
+	 * came from, returning the m x inputs error of the input activations.
+	 */
+	private DoubleMatrix col2im(DoubleMatrix patchError, int m)
+	{
+		int patchRows = patchError.getRows();
+		DoubleMatrix error = new DoubleMatrix(m,getInputSize());
+		int column = 0;
+		for (int c = 0; c<itsChannels; c++)
+		{
+			for (int dx = 0; dx<itsSize; dx++)
+			{
+				for (int dy = 0; dy<itsSize; dy++)
+				{
+					for (int ox = 0; ox<itsOutWidth; ox++)
+					{
+						for (int oy = 0; oy<itsOutHeight; oy++)
+						{
+							int target = (c*itsHeight*itsWidth + (ox+dx)*itsHeight + oy+dy)*m;
+							int source = column*patchRows + (ox*itsOutHeight + oy)*m;
+							for (int i = 0; i<m; i++)
+							{
+								error.data[target+i] += patchError.data[source+i];
+							}
+						}
+					}
+					column++;
+				}
+			}
+		}
+		return error;
+	}
+}
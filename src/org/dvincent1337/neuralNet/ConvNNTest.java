@@ -0,0 +1,67 @@
+package org.dvincent1337.neuralNet;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+/*
+* Trains a convolutional network on the 20x20 digit images (see InstNNTest for the fully connected network)
+*/
+
+
+public class ConvNNTest
+{
+
+	/*
+	 * Args are text files with one matrix in each file of format:
+	 * Line between rows
+	 * space between columns
+	 */
+	public static void main(String[] args)
+	{
+		
+		try
+		{
+			if (args.length <2)
+			{
+				System.out.println("Please include the matrix files as arguments [input matrix] [output matrix]");
+				return;
+			}
+			Scanner inputScanner = new Scanner(System.in);
+			DoubleMatrix X = NeuralNetwork.getMatrixFromTextFile(args[0]);	//Get training input data from a file
+			DoubleMatrix Y = NeuralNetwork.getMatrixFromTextFile(args[1]);	//Get training output data from a file
+			
+			int [] labels = NeuralNetwork.labelIndices(Y);
+			
+			Vector<Layer> layers = new Vector<Layer>();
+			layers.add(new ConvLayer(1,20,20,6,5));						//6 filters of 5x5 pixels: 6x16x16 outputs
+			layers.add(new PoolLayer(6,16,16,4,PoolLayer.Mode.MAX));	//6x4x4 outputs
+			layers.add(new DenseLayer(96,10));
+			double lambda = 0.905343;
+			
+			LayeredNetwork digitReader = new LayeredNetwork(layers,true);	//Create the neural network! randomly generate theta elements
+			System.out.println("Weights: "+digitReader.getWeightCount());
+			while (true)
+			{	
+				System.out.print("How many iterations? ");
+				int iters = inputScanner.nextInt();
+				if (iters >0)
+				{
+					digitReader.train(X, Y, lambda, iters,true); //Train the nerual network
+					double accuracy = NeuralNetwork.computeAccuracy(digitReader.predictClasses(X), labels); //find the accuracy
+					System.out.println("Accuracy: "+accuracy);
+					
+				}
+				else
+					break;
+			}
+			inputScanner.close();
+
+		} catch (NumberFormatException | IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class DenseLayer
+ * A fully connected sigmoid layer, the layer type of NeuralNetwork: z = [ones a]*Theta'
+ */
+
+import org.jblas.DoubleMatrix;
+
+public class DenseLayer implements Layer
+{
+	private int itsInputs;
+	private int itsOutputs;
+
+	/**
+	 * Constructs a layer with the given number of inputs and outputs.
+	 */
+	public DenseLayer(int inputs, int outputs)
+	{
+		itsInputs = inputs;
+		itsOutputs = outputs;
+	}
+
+	public int getInputSize()
+	{
+		return itsInputs;
+	}
+	public int getOutputSize()
+	{
+		return itsOutputs;
+	}
+	public int getWeightRows()
+	{
+		return itsOutputs;
+	}
+	public int getWeightColumns()
+	{
+		return itsInputs+1;
+	}
+
+	public DoubleMatrix forward(DoubleMatrix Theta, DoubleMatrix a)
+	{
+		return DoubleMatrix.concatHorizontally(DoubleMatrix.ones(a.getRows(),1),a).mmul(Theta.transpose());
+	}
+
+	public DoubleMatrix activate(DoubleMatrix z)
+	{
+		return NeuralNetwork.sigmoid(z);
+	}
+
+	public DoubleMatrix backward(DoubleMatrix Theta, DoubleMatrix a, DoubleMatrix z, DoubleMatrix delta,
+			DoubleMatrix DELTA, boolean propagate)
+	{
+		DELTA.addi(delta.transpose().mmul(DoubleMatrix.concatHorizontally(DoubleMatrix.ones(a.getRows(),1),a)));
+		if (!propagate)
+			return null;
+		int rows = Theta.getRows();
+		DoubleMatrix ThetaNoBias = new DoubleMatrix(rows,itsInputs);
+		System.arraycopy(Theta.data,rows,ThetaNoBias.data,0,ThetaNoBias.getLength());
+		return delta.mmul(ThetaNoBias);
+	}
+
+	public DoubleMatrix activationGradient(DoubleMatrix z, DoubleMatrix a, DoubleMatrix gradient)
+	{
+		return gradient.muli(a.mul(a.rsub(1)));
+	}
+}
@@ -0,0 +1,131 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class DistributedCost
+ * This class implements CostFunction by summing the unscaled cost and partial derivatives computed by
+ * DistributedWorker processes, each holding one shard of the training examples, and then adding the
+ * regularization exactly like BackPropCost. The result is the same as a BackPropCost over all shards, so it
+ * can be passed to NeuralNetwork.fmincg unchanged.
+ *
+ * 	The coordinator is connected to the root worker of each tree of workers (usually only one root).
+ * 	The time of each evaluation is split into compute time (the slowest worker) and communication time
+ * 	(everything else: serializing, sending and summing the gradients).
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class DistributedCost implements CostFunction
+{
+	private int[] topology;		//Neural network topology
+	private double lambda;		//Used for regularization
+	private OutputType output;	//Output layer activation, selects the cost
+	private Socket [] sockets;	//Connections to the root workers
+	private DataInputStream [] ins;
+	private DataOutputStream [] outs;
+
+	private long computeNanos;	//Total compute time of all evaluations
+	private long communicationNanos;	//Total communication time of all evaluations
+	private int evaluations;	//Number of evaluations
+
+	/**
+	 * Constructs a cost function connected to the given root workers.
+	 */
+	public DistributedCost(Vector<InetSocketAddress> roots, int [] setTopology, double setLambda) throws IOException
+	{
+		this(roots,setTopology,setLambda,OutputType.SIGMOID);
+	}
+
+	/**
+	 * Constructs a cost function connected to the given root workers, with given output layer type.
+	 */
+	public DistributedCost(Vector<InetSocketAddress> roots, int [] setTopology, double setLambda,
+			OutputType setOutput) throws IOException
+	{
+		topology = setTopology;
+		lambda = setLambda;
+		output = setOutput;
+		int n = roots.size();
+		sockets = new Socket[n];
+		ins = new DataInputStream[n];
+		outs = new DataOutputStream[n];
+		for (int i = 0; i<n; i++)
+		{
+			sockets[i] = new Socket();
+			sockets[i].connect(roots.get(i));
+			sockets[i].setTcpNoDelay(true);
+			ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+			outs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+		}
+	}
+
+	@Override
+	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	{
+		long start = System.nanoTime();
+		GradientWireFormat.Result total = null;
+		try
+		{
+			for (int i = 0; i<outs.length; i++)
+			{
+				GradientWireFormat.writeEvaluate(outs[i],topology,output,input);
+			}
+			for (int i = 0; i<ins.length; i++)
+			{
+				GradientWireFormat.Result result = GradientWireFormat.expectResult(ins[i]);
+				if (total == null)
+					total = result;
+				else
+					total.add(result);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Distributed evaluation failed",e);
+		}
+		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(input,topology);
+		Tuple<Double, DoubleMatrix> cost = BackPropCost.regularize(Theta,total.costSum,
+				NeuralNetwork.reshapeToList(total.DELTA,topology),lambda,total.examples);
+
+		long elapsed = System.nanoTime()-start;
+		computeNanos += total.computeNanos;
+		communicationNanos += Math.max(0,elapsed-total.computeNanos);
+		evaluations++;
+		return cost;
+	}
+
+	/**
+	 * Sends SHUTDOWN to the workers and closes the connections.
+	 */
+	public void close() throws IOException
+	{
+		for (int i = 0; i<sockets.length; i++)
+		{
+			GradientWireFormat.writeShutdown(outs[i]);
+			sockets[i].close();
+		}
+	}
+
+	/**
+	 * Accessors for the timing statistics:
+	 */
+	public long getComputeNanos()
+	{
+		return computeNanos;
+	}
+	public long getCommunicationNanos()
+	{
+		return communicationNanos;
+	}
+	public int getEvaluations()
+	{
+		return evaluations;
+	}
+}
@@ -0,0 +1,64 @@
+package org.dvincent1337.neuralNet;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.Vector;
+import java.net.InetSocketAddress;
+
+/*
+* Trains the neural network with DistributedWorker processes holding the dataset (see DistributedWorker for usage)
+*/
+
+
+public class DistributedNNTest
+{
+
+	/*
+	 * Args are the addresses of the root workers: host:port
+	 */
+	public static void main(String[] args)
+	{
+		
+		try
+		{
+			if (args.length <1)
+			{
+				System.out.println("Please include the root worker addresses as arguments [host:port]...");
+				return;
+			}
+			Vector<InetSocketAddress> roots = new Vector<InetSocketAddress>();
+			for (int i = 0; i<args.length; i++)
+			{
+				roots.add(DistributedWorker.parseAddress(args[i]));
+			}
+			Scanner inputScanner = new Scanner(System.in);
+			
+			int[] topology = {400,30,32,10};	
+			double lambda = 0.905343;
+			
+			DistributedCost cost = new DistributedCost(roots,topology,lambda);
+			NeuralNetwork digitReader = new NeuralNetwork(topology,true);
+			while (true)
+			{	
+				System.out.print("How many iterations? ");
+				int iters = inputScanner.nextInt();
+				if (iters >0)
+				{
+					digitReader.train(cost,iters,true);
+					System.out.println();
+					System.out.println("Evaluations: "+cost.getEvaluations()
+							+" | Compute: "+cost.getComputeNanos()/1000000+"ms"
+							+" | Communication: "+cost.getCommunicationNanos()/1000000+"ms");
+				}
+				else
+					break;
+			}
+			cost.close();
+			inputScanner.close();
+
+		} catch (NumberFormatException | IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class DistributedWorker
+ * A worker process for data-parallel training (see DistributedCost).
+ *
+ * 	Each worker holds one shard of the training examples. Workers are arranged in a tree: a worker listens
+ * 	for exactly one parent (the coordinator or another worker) and connects to its own children.
+ * 	For every EVALUATE message the worker forwards the weights to its children, computes the unscaled cost
+ * 	and partial derivatives of its shard with BackPropCost.evaluateUnscaled, adds the results of its children
+ * 	and sends the sum to its parent. This is a tree all-reduce: the weights are broadcast down the tree and
+ * 	the gradients are summed on the way back up, so no process receives more than (children+1) gradients.
+ *
+ * 	Usage:
+ * 		java org.dvincent1337.neuralNet.DistributedWorker [port] [input matrix] [output matrix] [shard] [shards] [child host:port]...
+ *
+ * 		For example three workers on localhost, where worker 0 is the root of the tree:
+ * 			java ... DistributedWorker 9001 digitInput.txt digitOutput.txt 1 3
+ * 			java ... DistributedWorker 9002 digitInput.txt digitOutput.txt 2 3
+ * 			java ... DistributedWorker 9000 digitInput.txt digitOutput.txt 0 3 localhost:9001 localhost:9002
+ * 		and then the coordinator: java ... DistributedNNTest localhost:9000
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class DistributedWorker
+{
+	private DoubleMatrix X;		//Input examples of this shard
+	private DoubleMatrix Y;		//Output examples of this shard
+	private Vector<InetSocketAddress> itsChildren;	//Addresses of the child workers
+
+	/**
+	 * Constructs a worker with given shard of examples and given child workers.
+	 */
+	public DistributedWorker(DoubleMatrix shardX, DoubleMatrix shardY, Vector<InetSocketAddress> children)
+	{
+		X = shardX;
+		Y = shardY;
+		itsChildren = children;
+	}
+
+	/**
+	 * Waits for a parent on the given port and serves it until a SHUTDOWN message is received
+	 * or the parent closes the connection.
+	 */
+	public void serve(int port) throws IOException
+	{
+		ServerSocket server = new ServerSocket(port);
+		Socket parent;
+		try
+		{
+			parent = server.accept();
+		}
+		finally
+		{
+			server.close();
+		}
+		parent.setTcpNoDelay(true);
+		DataInputStream parentIn = new DataInputStream(new BufferedInputStream(parent.getInputStream()));
+		DataOutputStream parentOut = new DataOutputStream(new BufferedOutputStream(parent.getOutputStream()));
+
+		int children = itsChildren.size();
+		Socket [] childSockets = new Socket[children];
+		DataInputStream [] childIn = new DataInputStream[children];
+		DataOutputStream [] childOut = new DataOutputStream[children];
+		for (int i = 0; i<children; i++)
+		{
+			childSockets[i] = new Socket();
+			childSockets[i].connect(itsChildren.get(i));
+			childSockets[i].setTcpNoDelay(true);
+			childIn[i] = new DataInputStream(new BufferedInputStream(childSockets[i].getInputStream()));
+			childOut[i] = new DataOutputStream(new BufferedOutputStream(childSockets[i].getOutputStream()));
+		}
+
+		try
+		{
+			while (true)
+			{
+				byte type = GradientWireFormat.readHeader(parentIn);
+				if (type == GradientWireFormat.SHUTDOWN)
+				{
+					for (int i = 0; i<children; i++)
+					{
+						GradientWireFormat.writeShutdown(childOut[i]);
+					}
+					break;
+				}
+				if (type != GradientWireFormat.EVALUATE)
+					throw new IOException("Unexpected message type "+type);
+
+				int [] topology = GradientWireFormat.readTopology(parentIn);
+				OutputType output = GradientWireFormat.readOutputType(parentIn);
+				DoubleMatrix theta = GradientWireFormat.readMatrix(parentIn);
+
+				//Send the weights down the tree before computing so the children work at the same time.
+				for (int i = 0; i<children; i++)
+				{
+					GradientWireFormat.writeEvaluate(childOut[i],topology,output,theta);
+				}
+
+				GradientWireFormat.Result result = evaluate(theta,topology,output);
+				for (int i = 0; i<children; i++)
+				{
+					result.add(GradientWireFormat.expectResult(childIn[i]));
+				}
+				GradientWireFormat.writeResult(parentOut,result.costSum,result.examples,
+						result.computeNanos,result.DELTA);
+			}
+		}
+		finally
+		{
+			for (int i = 0; i<children; i++)
+			{
+				childSockets[i].close();
+			}
+			parent.close();
+		}
+	}
+
+	/**
+	 * Computes the unscaled cost and partial derivatives of this worker's shard.
+	 */
+	public GradientWireFormat.Result evaluate(DoubleMatrix theta, int [] topology, OutputType output)
+	{
+		long start = System.nanoTime();
+		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(theta,topology);
+		Tuple<Double, Vector<DoubleMatrix>> unscaled = BackPropCost.evaluateUnscaled(Theta,X,Y,output);
+
+		GradientWireFormat.Result result = new GradientWireFormat.Result();
+		result.costSum = unscaled.getFirst().doubleValue();
+		result.examples = X.getRows();
+		result.DELTA = NeuralNetwork.reshapeToVector(unscaled.getSecond());
+		result.computeNanos = System.nanoTime()-start;
+		return result;
+	}
+
+	/**
+	 * Returns the rows [shard*m/shards, (shard+1)*m/shards) of the given matrix.
+	 */
+	public static DoubleMatrix getShard(DoubleMatrix matrix, int shard, int shards)
+	{
+		int m = matrix.getRows();
+		int first = (int) ((long) shard*m/shards);
+		int last = (int) ((long) (shard+1)*m/shards);
+		int [] rows = new int[last-first];
+		for (int i = 0; i<rows.length; i++)
+		{
+			rows[i] = first+i;
+		}
+		return matrix.getRows(rows);
+	}
+
+	/**
+	 * Parses an address of the form host:port
+	 */
+	public static InetSocketAddress parseAddress(String address)
+	{
+		int index = address.lastIndexOf(':');
+		if (index < 0)
+			throw new IllegalArgumentException("Address should be host:port, got "+address);
+		return new InetSocketAddress(address.substring(0,index),Integer.parseInt(address.substring(index+1)));
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			if (args.length < 5)
+			{
+				System.out.println("Please include arguments [port] [input matrix] [output matrix] [shard] [shards] [child host:port]...");
+				return;
+			}
+			int port = Integer.parseInt(args[0]);
+			int shard = Integer.parseInt(args[3]);
+			int shards = Integer.parseInt(args[4]);
+			DoubleMatrix X = getShard(NeuralNetwork.getMatrixFromTextFile(args[1]),shard,shards);
+			DoubleMatrix Y = getShard(NeuralNetwork.getMatrixFromTextFile(args[2]),shard,shards);
+			Vector<InetSocketAddress> children = new Vector<InetSocketAddress>();
+			for (int i = 5; i<args.length; i++)
+			{
+				children.add(parseAddress(args[i]));
+			}
+			System.out.println("Worker "+shard+"/"+shards+" holding "+X.getRows()+" examples, listening on port "+port);
+			new DistributedWorker(X,Y,children).serve(port);
+		}
+		catch (NumberFormatException | IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class GradientCheck
+ * Numerical verification of cost functions (the checkgrad counterpart mentioned in the fmincg comments).
+ *
+ * 	checkGradient compares the gradient returned by a CostFunction with the central difference
+ * 		(f(theta + e) - f(theta - e)) / (2*epsilon)
+ * 	on a random sample of coordinates. Each sampled coordinate needs two extra evaluations of the cost, so the
+ * 	perturbed evaluations are spread over a pool of threads (the CostFunction must be safe to call from several
+ * 	threads at once, which BackPropCost is).
+ *
+ * 	compareEngines evaluates two CostFunctions that should compute the same thing (for example BackPropCost and a
+ * 	faster rewrite of it) at the same weights and compares their costs and gradients.
+ *
+ * 	Both return a Report; a check passes when every compared value is within the absolute OR the relative tolerance.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jblas.DoubleMatrix;
+
+public class GradientCheck
+{
+	/**
+	 * The result of a check: the compared values and the largest differences between them.
+	 */
+	public static class Report
+	{
+		public int [] indices;		//Compared gradient coordinates
+		public double [] expected;	//Numerical (or reference) values
+		public double [] actual;	//Analytic (or candidate) values
+		public double costDifference;	//Absolute difference of the costs (compareEngines only)
+		public double maxAbsoluteError;
+		public double maxRelativeError;
+		public int worstIndex = -1;	//Coordinate with the largest relative error
+
+		/**
+		 * Returns true if every compared value (and the cost) is within the absolute or the relative tolerance.
+		 */
+		public boolean passed(double absoluteTolerance, double relativeTolerance)
+		{
+			if (costDifference > absoluteTolerance)
+				return false;
+			for (int i = 0; i<indices.length; i++)
+			{
+				double absolute = Math.abs(expected[i]-actual[i]);
+				if (absolute > absoluteTolerance && relativeError(expected[i],actual[i]) > relativeTolerance)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Prints a one line summary to the standard output.
+		 */
+		public void print(String name)
+		{
+			System.out.println(name+": "+indices.length+" values | max absolute error: "+maxAbsoluteError
+					+" | max relative error: "+maxRelativeError+" (index "+worstIndex+")"
+					+" | cost difference: "+costDifference);
+		}
+
+		private void compare()
+		{
+			maxAbsoluteError = 0;
+			maxRelativeError = 0;
+			for (int i = 0; i<indices.length; i++)
+			{
+				double absolute = Math.abs(expected[i]-actual[i]);
+				double relative = relativeError(expected[i],actual[i]);
+				maxAbsoluteError = Math.max(maxAbsoluteError,absolute);
+				if (relative > maxRelativeError || worstIndex < 0)
+				{
+					maxRelativeError = relative;
+					worstIndex = indices[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns |a-b| / (|a|+|b|), or 0 if both are 0.
+	 */
+	public static double relativeError(double a, double b)
+	{
+		double scale = Math.abs(a)+Math.abs(b);
+		return scale == 0 ? 0 : Math.abs(a-b)/scale;
+	}
+
+	/**
+	 * Compares the analytic gradient of f at theta with central differences on "samples" randomly chosen
+	 * coordinates (all coordinates if samples is at least the length of theta).
+	 * The perturbed costs are evaluated on the given number of threads.
+	 */
+	public static Report checkGradient(final CostFunction f, final DoubleMatrix theta, int samples,
+			final double epsilon, long seed, int threads) throws InterruptedException
+	{
+		DoubleMatrix analytic = f.evaluateCost(theta).getSecond();
+		int [] indices = sampleIndices(theta.getLength(),samples,seed);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,threads));
+		try
+		{
+			Vector<Future<Double>> futures = new Vector<Future<Double>>();
+			for (int i = 0; i<indices.length; i++)
+			{
+				final int index = indices[i];
+				futures.add(pool.submit(new Callable<Double>()
+				{
+					public Double call()
+					{
+						DoubleMatrix perturbed = theta.dup();
+						double original = perturbed.get(index);
+						perturbed.put(index,original+epsilon);
+						double plus = f.evaluateCost(perturbed).getFirst().doubleValue();
+						perturbed.put(index,original-epsilon);
+						double minus = f.evaluateCost(perturbed).getFirst().doubleValue();
+						return Double.valueOf((plus-minus)/(2*epsilon));
+					}
+				}));
+			}
+
+			Report report = new Report();
+			report.indices = indices;
+			report.expected = new double[indices.length];
+			report.actual = new double[indices.length];
+			for (int i = 0; i<indices.length; i++)
+			{
+				report.expected[i] = futures.get(i).get().doubleValue();
+				report.actual[i] = analytic.get(indices[i]);
+			}
+			report.compare();
+			return report;
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("Cost evaluation failed",e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Evaluates a reference and a candidate cost function at theta and compares their costs and every
+	 * element of their gradients.
+	 */
+	public static Report compareEngines(CostFunction reference, CostFunction candidate, DoubleMatrix theta)
+	{
+		Tuple<Double, DoubleMatrix> expected = reference.evaluateCost(theta.dup());
+		Tuple<Double, DoubleMatrix> actual = candidate.evaluateCost(theta.dup());
+		int length = expected.getSecond().getLength();
+		if (actual.getSecond().getLength() != length)
+			throw new IllegalArgumentException("Gradient lengths differ: "+length+" and "+actual.getSecond().getLength());
+
+		Report report = new Report();
+		report.indices = new int[length];
+		for (int i = 0; i<length; i++)
+		{
+			report.indices[i] = i;
+		}
+		report.expected = expected.getSecond().toArray();
+		report.actual = actual.getSecond().toArray();
+		report.costDifference = Math.abs(expected.getFirst().doubleValue()-actual.getFirst().doubleValue());
+		report.compare();
+		return report;
+	}
+
+	/**
+	 * Returns "samples" distinct indices in [0,length) in increasing order, chosen with the given seed.
+	 */
+	public static int [] sampleIndices(int length, int samples, long seed)
+	{
+		int [] all = new int[length];
+		for (int i = 0; i<length; i++)
+		{
+			all[i] = i;
+		}
+		if (samples >= length)
+			return all;
+		Random random = new Random(seed);
+		for (int i = 0; i<samples; i++)	//partial Fisher-Yates shuffle
+		{
+			int j = i+random.nextInt(length-i);
+			int temp = all[i];
+			all[i] = all[j];
+			all[j] = temp;
+		}
+		int [] result = new int[samples];
+		System.arraycopy(all,0,result,0,samples);
+		Arrays.sort(result);
+		return result;
+	}
+}
@@ -0,0 +1,255 @@
+package org.dvincent1337.neuralNet;
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+/*
+* Checks the gradients of the cost functions on a small random network and dataset, and that the other engines
+* give the same results as the plain code paths they replace.
+* Prints a report for each check and exits with status 1 if any check fails.
+*/
+
+
+public class GradientCheckTest
+{
+	static final double EPSILON = 1e-5;
+	static final double ABSOLUTE_TOLERANCE = 1e-8;
+	static final double RELATIVE_TOLERANCE = 1e-5;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		int[] topology = {12,7,5,4};
+		double lambda = 0.7;
+		int m = 40;
+		
+		org.jblas.util.Random.seed(1337);
+		DoubleMatrix X = DoubleMatrix.randn(m,topology[0]);
+		DoubleMatrix Y = DoubleMatrix.zeros(m,topology[topology.length-1]);
+		for (int i = 0; i<m; i++)
+		{
+			Y.put(i,i%Y.getColumns(),1);
+		}
+		DoubleMatrix theta = NeuralNetwork.reshapeToVector(NeuralNetwork.generateThetas(topology));
+		DoubleMatrix images = DoubleMatrix.rand(m,60);	//2 channel 6x5 images
+		
+		boolean passed = true;
+		
+		for (OutputType output : OutputType.values())
+		{
+			CostFunction reference = new BackPropCost(X,Y,topology,lambda,output);
+			passed &= check("BackPropCost "+output,
+					GradientCheck.checkGradient(reference,theta,theta.getLength(),EPSILON,1,threads));
+			
+			for (int stages = 1; stages<=3; stages++)
+			{
+				PipelinedBackPropCost pipelined = new PipelinedBackPropCost(X,Y,topology,lambda,output,stages,7);
+				passed &= check("PipelinedBackPropCost "+output+" "+stages+" stages",
+						GradientCheck.compareEngines(reference,pipelined,theta));
+				pipelined.shutdown();
+			}
+			
+			//several evaluations at once, each pipeline's stages must not wait behind another evaluation's
+			PipelinedBackPropCost concurrent = new PipelinedBackPropCost(X,Y,topology,lambda,output,3,7);
+			passed &= check("PipelinedBackPropCost "+output+" concurrent evaluations",
+					GradientCheck.checkGradient(concurrent,theta,theta.getLength(),EPSILON,1,8));
+			concurrent.shutdown();
+
+			for (CompactDataset.Encoding encoding : CompactDataset.Encoding.values())
+			{
+				CompactDataset compact = CompactDataset.fromMatrices(X,Y,encoding);
+				int [] all = CompactDataset.range(0,m);
+				CostFunction decoded = new BackPropCost(compact.decodeInputs(all,null),compact.decodeOutputs(all,null),
+						topology,lambda,output);
+				passed &= check("CompactBackPropCost "+output+" "+encoding,
+						GradientCheck.compareEngines(decoded,new CompactBackPropCost(compact,topology,lambda,output,15),theta));
+			}
+
+			Vector<Layer> dense = new Vector<Layer>();
+			for (int i = 0; i<topology.length-1; i++)
+			{
+				dense.add(new DenseLayer(topology[i],topology[i+1]));
+			}
+			passed &= check("LayeredCost "+output+" dense",
+					GradientCheck.compareEngines(reference,new LayeredCost(X,Y,dense,lambda,output,15),theta));
+
+			Vector<DoubleMatrix> masks = Pruning.masksGlobal(NeuralNetwork.reshapeToList(theta,topology),0.6);
+			DoubleMatrix mask = NeuralNetwork.reshapeToVector(masks);
+			passed &= check("MaskedCost "+output,
+					GradientCheck.checkGradient(new MaskedCost(reference,mask),theta,theta.getLength(),EPSILON,1,threads));
+			NeuralNetwork pruned = new NeuralNetwork(topology,Pruning.applyMasks(NeuralNetwork.reshapeToList(theta,topology),masks));
+			pruned.setOutputType(output);
+			passed &= check("MaskedCost "+output+" training keeps pruned weights at 0",keepsPrunedWeights(pruned,reference,masks));
+			passed &= check("SparseNetwork "+output+" forward prop",sameSparseOutputs(pruned));
+
+			for (PoolLayer.Mode mode : PoolLayer.Mode.values())
+			{
+				Vector<Layer> layers = new Vector<Layer>();
+				layers.add(new ConvLayer(2,6,5,3,3));			//3x4x3 outputs
+				layers.add(new PoolLayer(3,4,3,2,mode));		//3x2x1 outputs
+				layers.add(new DenseLayer(6,Y.getColumns()));
+				LayeredNetwork network = new LayeredNetwork(layers,true);
+				CostFunction conv = new LayeredCost(images,Y,layers,lambda,output,15);
+				DoubleMatrix convTheta = NeuralNetwork.reshapeToVector(network.getTheta());
+				passed &= check("LayeredCost "+output+" conv "+mode,
+						GradientCheck.checkGradient(conv,convTheta,convTheta.getLength(),EPSILON,1,threads));
+			}
+		}
+		
+		passed &= check("Pruning exact sparsity with tied weights",exactSparsity(topology));
+		passed &= check("MultiModelEvaluator same outputs as each model",sameMultiModelOutputs(X));
+		passed &= check("BatchPipeline same batches with 1 and 4 workers",samePipelineBatches(X,Y,4));
+		
+		if (!passed)
+		{
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+	
+	static boolean check(String name, GradientCheck.Report report)
+	{
+		report.print(name);
+		return report.passed(ABSOLUTE_TOLERANCE,RELATIVE_TOLERANCE);
+	}
+	
+	static boolean check(String name, boolean passed)
+	{
+		System.out.println(name+": "+(passed ? "passed" : "FAILED"));
+		return passed;
+	}
+	
+	/**
+	 * Trains a pruned network through MaskedCost and returns true if every pruned weight is still exactly 0.
+	 */
+	static boolean keepsPrunedWeights(NeuralNetwork nn, CostFunction cost, Vector<DoubleMatrix> masks)
+	{
+		nn.train(new MaskedCost(cost,NeuralNetwork.reshapeToVector(masks)),10,false);
+		Vector<DoubleMatrix> Theta = nn.getTheta();
+		for (int l = 0; l<Theta.size(); l++)
+		{
+			for (int k = 0; k<Theta.get(l).getLength(); k++)
+			{
+				if (masks.get(l).get(k) == 0 && Theta.get(l).get(k) != 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if SparseNetwork.forwardPropOutput matches NeuralNetwork.forwardPropOutput on random inputs.
+	 */
+	static boolean sameSparseOutputs(NeuralNetwork nn)
+	{
+		DoubleMatrix X = DoubleMatrix.randn(25,nn.getTopology()[0]);
+		return close(NeuralNetwork.forwardPropOutput(nn.getTheta(),X),new SparseNetwork(nn).forwardPropOutput(X));
+	}
+
+	/**
+	 * Returns true if MultiModelEvaluator gives every model (of different depths, including one without hidden
+	 * layers, and both output types) the same outputs and hypotheses as the model on its own.
+	 */
+	static boolean sameMultiModelOutputs(DoubleMatrix X)
+	{
+		int inputs = X.getColumns();
+		int [][] topologies = {{inputs,4},{inputs,7,5,4},{inputs,9,3},{inputs,3,6,5,2}};
+		Vector<NeuralNetwork> models = new Vector<NeuralNetwork>();
+		for (int k = 0; k<topologies.length; k++)
+		{
+			NeuralNetwork model = new NeuralNetwork(topologies[k],true);
+			model.setOutputType(OutputType.values()[k%OutputType.values().length]);
+			models.add(model);
+		}
+		MultiModelEvaluator evaluator = new MultiModelEvaluator(models);
+		Vector<DoubleMatrix> outputs = evaluator.forwardPropOutputs(X);
+		Vector<DoubleMatrix> hypotheses = evaluator.hypotheses(X);
+		for (int k = 0; k<models.size(); k++)
+		{
+			NeuralNetwork model = models.get(k);
+			if (!close(outputs.get(k),NeuralNetwork.forwardPropOutput(model.getTheta(),X))
+					|| !close(hypotheses.get(k),model.hypothesisFP(X)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the matrices have the same size and no elements further apart than ABSOLUTE_TOLERANCE.
+	 */
+	static boolean close(DoubleMatrix a, DoubleMatrix b)
+	{
+		return a.getRows() == b.getRows() && a.getColumns() == b.getColumns() && a.sub(b).normmax() <= ABSOLUTE_TOLERANCE;
+	}
+
+	/**
+	 * Returns true if global and per layer masks prune exactly round(sparsity*weights) weights when every weight
+	 * has the same magnitude.
+	 */
+	static boolean exactSparsity(int [] topology)
+	{
+		Vector<DoubleMatrix> Theta = NeuralNetwork.generateThetas(topology);
+		for (int l = 0; l<Theta.size(); l++)
+		{
+			Theta.get(l).fill(0.5);
+		}
+		double [] sparsities = {0.3,0.5,0.9};
+		for (double sparsity : sparsities)
+		{
+			long total = 0;
+			Vector<DoubleMatrix> perLayer = Pruning.masksPerLayer(Theta,sparsity);
+			for (int l = 0; l<Theta.size(); l++)
+			{
+				DoubleMatrix W = Theta.get(l);
+				int weights = W.getLength()-W.getRows();
+				long pruned = weights-(long) (perLayer.get(l).sum()-W.getRows());
+				if (pruned != Math.round(sparsity*weights))
+					return false;
+				total += weights;
+			}
+			if (Pruning.sparsity(Pruning.masksGlobal(Theta,sparsity)) != ((double) Math.round(sparsity*total))/total)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a pipeline with random transforms gives exactly the same batches with 1 worker and with the given workers.
+	 */
+	static boolean samePipelineBatches(DoubleMatrix X, DoubleMatrix Y, int workers) throws InterruptedException
+	{
+		BatchPipeline single = new BatchPipeline(X,Y,7,3,42);
+		BatchPipeline parallel = new BatchPipeline(X,Y,7,3,42);
+		parallel.setWorkers(workers);
+		parallel.setPrefetch(2*workers);
+		BatchPipeline [] pipelines = {single,parallel};
+		for (BatchPipeline pipeline : pipelines)
+		{
+			pipeline.addTransform(NormalizeTransform.fit(X));
+			pipeline.addTransform(new ImageShiftTransform(3,4,1,0));	//rows of X as 3x4 images
+			pipeline.start();
+		}
+		int batches = 0;
+		while (true)
+		{
+			Tuple<DoubleMatrix, DoubleMatrix> a = single.nextBatch();
+			Tuple<DoubleMatrix, DoubleMatrix> b = parallel.nextBatch();
+			if (a == null || b == null)
+				return a == null && b == null && batches == 3*single.getBatchesPerEpoch();
+			if (!identical(a.getFirst(),b.getFirst()) || !identical(a.getSecond(),b.getSecond()))
+				return false;
+			batches++;
+		}
+	}
+	
+	/**
+	 * Returns true if the matrices have the same size and exactly the same elements.
+	 */
+	static boolean identical(DoubleMatrix a, DoubleMatrix b)
+	{
+		return a.getRows() == b.getRows() && a.getColumns() == b.getColumns() && Arrays.equals(a.data,b.data);
+	}
+
+}
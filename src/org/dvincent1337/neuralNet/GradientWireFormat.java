@@ -0,0 +1,210 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class GradientWireFormat
+ * This class reads and writes the binary messages exchanged between a DistributedCost coordinator and
+ * DistributedWorker processes.
+ *
+ * 	Every message starts with the MAGIC int and a one byte message type:
+ * 		EVALUATE:	int layers, int[layers] topology, byte output type (OutputType ordinal), matrix theta
+ * 		RESULT:		double costSum, int examples, long computeNanos, matrix DELTA
+ * 		SHUTDOWN:	(no payload)
+ * 	A matrix is written as int rows, int columns, followed by rows*columns big-endian doubles in
+ * 	column-major order (the same order as DoubleMatrix.data), so a column matrix of weights or gradients is
+ * 	sent with one bulk copy instead of one call per element.
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jblas.DoubleMatrix;
+
+public class GradientWireFormat
+{
+	public static final int MAGIC = 0x4e4e4757;	//"NNGW"
+
+	public static final byte EVALUATE = 1;
+	public static final byte RESULT = 2;
+	public static final byte SHUTDOWN = 3;
+
+	/**
+	 * Writes the message header.
+	 */
+	public static void writeHeader(DataOutputStream out, byte type) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeByte(type);
+	}
+
+	/**
+	 * Reads a message header and returns the message type.
+	 * Throws an IOException if the stream is not positioned at a message.
+	 */
+	public static byte readHeader(DataInputStream in) throws IOException
+	{
+		int magic = in.readInt();
+		if (magic != MAGIC)
+			throw new IOException("Bad message header: 0x"+Integer.toHexString(magic));
+		return in.readByte();
+	}
+
+	/**
+	 * Writes a topology as its length followed by each layer size.
+	 */
+	public static void writeTopology(DataOutputStream out, int [] topology) throws IOException
+	{
+		out.writeInt(topology.length);
+		for (int i = 0; i<topology.length; i++)
+		{
+			out.writeInt(topology[i]);
+		}
+	}
+
+	/**
+	 * Reads a topology written with writeTopology.
+	 */
+	public static int [] readTopology(DataInputStream in) throws IOException
+	{
+		int [] topology = new int[in.readInt()];
+		for (int i = 0; i<topology.length; i++)
+		{
+			topology[i] = in.readInt();
+		}
+		return topology;
+	}
+
+	/**
+	 * Reads an output type written as its ordinal.
+	 */
+	public static OutputType readOutputType(DataInputStream in) throws IOException
+	{
+		int ordinal = in.readByte();
+		OutputType [] types = OutputType.values();
+		if (ordinal < 0 || ordinal >= types.length)
+			throw new IOException("Bad output type: "+ordinal);
+		return types[ordinal];
+	}
+
+	/**
+	 * Writes the dimensions and elements of a matrix.
+	 */
+	public static void writeMatrix(DataOutputStream out, DoubleMatrix matrix) throws IOException
+	{
+		out.writeInt(matrix.getRows());
+		out.writeInt(matrix.getColumns());
+		byte [] bytes = new byte[byteCount(matrix.getRows(),matrix.getColumns())];
+		ByteBuffer.wrap(bytes).asDoubleBuffer().put(matrix.data,0,matrix.getLength());
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a matrix written with writeMatrix.
+	 */
+	public static DoubleMatrix readMatrix(DataInputStream in) throws IOException
+	{
+		int rows = in.readInt();
+		int cols = in.readInt();
+		if (rows < 0 || cols < 0)
+			throw new IOException("Bad matrix size: "+rows+"x"+cols);
+		byte [] bytes = new byte[byteCount(rows,cols)];
+		in.readFully(bytes);
+		DoubleMatrix result = new DoubleMatrix(rows,cols);
+		ByteBuffer.wrap(bytes).asDoubleBuffer().get(result.data);
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes of the elements of a rows x cols matrix, computed without int overflow.
+	 * Throws an IOException if they do not fit in one array.
+	 */
+	private static int byteCount(int rows, int cols) throws IOException
+	{
+		long bytes = 8L*rows*cols;
+		if (bytes > Integer.MAX_VALUE)
+			throw new IOException("Matrix too large: "+rows+"x"+cols);
+		return (int) bytes;
+	}
+
+	/**
+	 * Writes a complete EVALUATE message.
+	 */
+	public static void writeEvaluate(DataOutputStream out, int [] topology, OutputType output,
+			DoubleMatrix theta) throws IOException
+	{
+		writeHeader(out,EVALUATE);
+		writeTopology(out,topology);
+		out.writeByte(output.ordinal());
+		writeMatrix(out,theta);
+		out.flush();
+	}
+
+	/**
+	 * Writes a complete RESULT message.
+	 */
+	public static void writeResult(DataOutputStream out, double costSum, int examples,
+			long computeNanos, DoubleMatrix DELTA) throws IOException
+	{
+		writeHeader(out,RESULT);
+		out.writeDouble(costSum);
+		out.writeInt(examples);
+		out.writeLong(computeNanos);
+		writeMatrix(out,DELTA);
+		out.flush();
+	}
+
+	/**
+	 * Writes a complete SHUTDOWN message.
+	 */
+	public static void writeShutdown(DataOutputStream out) throws IOException
+	{
+		writeHeader(out,SHUTDOWN);
+		out.flush();
+	}
+
+	/**
+	 * The payload of a RESULT message.
+	 */
+	public static class Result
+	{
+		public double costSum;		//Summed (unscaled) cost of the examples
+		public int examples;		//Number of examples that were summed
+		public long computeNanos;	//Longest compute time of any worker that contributed
+		public DoubleMatrix DELTA;	//Summed (unscaled) partial derivatives as a column matrix
+
+		/**
+		 * Adds another result into this one.
+		 */
+		public void add(Result other)
+		{
+			costSum += other.costSum;
+			examples += other.examples;
+			computeNanos = Math.max(computeNanos,other.computeNanos);
+			DELTA.addi(other.DELTA);
+		}
+	}
+
+	/**
+	 * Reads the payload of a RESULT message (the header must already have been read).
+	 */
+	public static Result readResult(DataInputStream in) throws IOException
+	{
+		Result result = new Result();
+		result.costSum = in.readDouble();
+		result.examples = in.readInt();
+		result.computeNanos = in.readLong();
+		result.DELTA = readMatrix(in);
+		return result;
+	}
+
+	/**
+	 * Reads a message header and the payload of the RESULT message that must follow.
+	 */
+	public static Result expectResult(DataInputStream in) throws IOException
+	{
+		byte type = readHeader(in);
+		if (type != RESULT)
+			throw new IOException("Expected a RESULT message, got type "+type);
+		return readResult(in);
+	}
+}
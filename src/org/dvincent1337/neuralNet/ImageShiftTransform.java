@@ -0,0 +1,65 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class ImageShiftTransform
+ * A BatchTransform that moves each input image by a random number of pixels (augmentation).
+ *
+ * 	Each row of the input matrix is one width x height grayscale image stored column by column
+ * 	(pixel (x,y) is column x*height+y), which is how the 20x20 images of digitInput.txt are stored.
+ * 	Pixels shifted in from outside the image are filled with the given background value.
+ */
+
+import java.util.Random;
+
+import org.jblas.DoubleMatrix;
+
+public class ImageShiftTransform implements BatchTransform
+{
+	private int itsWidth;
+	private int itsHeight;
+	private int itsMaxShift;		//Largest shift in each direction, in pixels
+	private double itsBackground;	//Value of pixels shifted in from outside the image
+
+	/**
+	 * Constructs a transform that shifts images by -maxShift ... maxShift pixels in each direction.
+	 */
+	public ImageShiftTransform(int width, int height, int maxShift, double background)
+	{
+		itsWidth = width;
+		itsHeight = height;
+		itsMaxShift = maxShift;
+		itsBackground = background;
+	}
+
+	@Override
+	public Tuple<DoubleMatrix, DoubleMatrix> transform(DoubleMatrix X, DoubleMatrix Y, Random random)
+	{
+		int rows = X.getRows();
+		if (X.getColumns() != itsWidth*itsHeight)
+			throw new IllegalArgumentException("Expected "+itsWidth*itsHeight+" columns, got "+X.getColumns());
+		double [] image = new double[itsWidth*itsHeight];
+		for (int i = 0; i<rows; i++)
+		{
+			int dx = random.nextInt(2*itsMaxShift+1) - itsMaxShift;
+			int dy = random.nextInt(2*itsMaxShift+1) - itsMaxShift;
+			if (dx == 0 && dy == 0)
+				continue;
+			for (int p = 0; p<image.length; p++)
+			{
+				image[p] = X.data[i+p*rows];
+			}
+			for (int x = 0; x<itsWidth; x++)
+			{
+				int sx = x - dx;
+				for (int y = 0; y<itsHeight; y++)
+				{
+					int sy = y - dy;
+					double value = itsBackground;
+					if (sx >= 0 && sx < itsWidth && sy >= 0 && sy < itsHeight)
+						value = image[sx*itsHeight+sy];
+					X.data[i+(x*itsHeight+y)*rows] = value;
+				}
+			}
+		}
+		return new Tuple<DoubleMatrix, DoubleMatrix>(X,Y);
+	}
+}
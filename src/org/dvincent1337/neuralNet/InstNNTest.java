@@ -31,6 +31,8 @@ public class InstNNTest
 			DoubleMatrix X = NeuralNetwork.getMatrixFromTextFile(args[0]);	//Get training input data from a file
 			DoubleMatrix Y = NeuralNetwork.getMatrixFromTextFile(args[1]);	//Get training output data from a file
 			
+			int [] labels = NeuralNetwork.labelIndices(Y);
+			
 			int[] topology = {400,30,32,10};	
 			double lambda = 0.905343;
 			
@@ -42,7 +44,7 @@ public class InstNNTest
 				if (iters >0)
 				{
 					digitReader.trainBP(X, Y, lambda, iters,true); //Train the nerual network
-					double accuracy = NeuralNetwork.computeAccuracy(digitReader.predictFP(X), Y); //find the accuracy
+					double accuracy = NeuralNetwork.computeAccuracy(digitReader.predictClasses(X), labels); //find the accuracy
 					System.out.println("Accuracy: "+accuracy);
 					
 				}
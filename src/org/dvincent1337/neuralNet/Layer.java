@@ -0,0 +1,62 @@
+package org.dvincent1337.neuralNet;
+/*
+ * interface Layer
+ * One layer of a LayeredNetwork: maps the activations of the layer before (one example per row) to its own outputs.
+ *
+ * 	A layer with weights has one weight matrix whose first column holds the biases, like the Theta matrices of
+ * 	NeuralNetwork, so BackPropCost.regularize applies to it unchanged. A layer without weights (pooling) has 0 weight rows
+ * 	and is given a null weight matrix.
+ *
+ * 	Images are stored one per row, channel by channel, each channel column by column: the value of channel c at
+ * 	column x and row y of an image of the given height and width is at index c*height*width + x*height + y
+ * 	(the layout of the 20x20 digit images).
+ */
+
+import org.jblas.DoubleMatrix;
+
+public interface Layer
+{
+	/**
+	 * Returns the number of inputs (values of each example) of the layer.
+	 */
+	public int getInputSize();
+
+	/**
+	 * Returns the number of outputs of the layer.
+	 */
+	public int getOutputSize();
+
+	/**
+	 * Returns the number of rows of the layer's weight matrix, or 0 if the layer has no weights.
+	 */
+	public int getWeightRows();
+
+	/**
+	 * Returns the number of columns of the layer's weight matrix (including the bias column).
+	 */
+	public int getWeightColumns();
+
+	/**
+	 * Returns the outputs of the layer before activation (z) for the given input activations.
+	 */
+	public DoubleMatrix forward(DoubleMatrix Theta, DoubleMatrix a);
+
+	/**
+	 * Returns the activations of the given outputs.
+	 */
+	public DoubleMatrix activate(DoubleMatrix z);
+
+	/**
+	 * Given the error of the outputs (the partial derivatives of the cost with respect to z), adds the summed partial
+	 * derivatives of the weights to DELTA and, if propagate is true, returns the partial derivatives with respect to
+	 * the input activations a (otherwise null).
+	 */
+	public DoubleMatrix backward(DoubleMatrix Theta, DoubleMatrix a, DoubleMatrix z, DoubleMatrix delta,
+			DoubleMatrix DELTA, boolean propagate);
+
+	/**
+	 * Turns the given partial derivatives with respect to the activations a = activate(z) into partial derivatives
+	 * with respect to z (in place) and returns them.
+	 */
+	public DoubleMatrix activationGradient(DoubleMatrix z, DoubleMatrix a, DoubleMatrix gradient);
+}
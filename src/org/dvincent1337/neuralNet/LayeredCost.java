@@ -0,0 +1,113 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class LayeredCost
+ * This class implements CostFunction for a LayeredNetwork (a stack of Layers, for example convolution and pooling
+ * layers followed by dense layers), with the cost and regularization of BackPropCost.
+ *
+ * 	The examples are processed in chunks of "chunkSize" rows, which bounds the im2col patch matrices of convolution
+ * 	layers; the summed costs and partial derivatives of the chunks are added before BackPropCost.regularize.
+ * 	A network of only DenseLayers gives the same results as BackPropCost (checked in GradientCheckTest).
+ */
+
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class LayeredCost implements CostFunction
+{
+	private DoubleMatrix X;		//Training input matrix
+	private DoubleMatrix Y;		//Training output matrix
+	private Vector<Layer> layers;	//Network layers
+	private double lambda;		//Used for regularization
+	private OutputType output;	//Output layer activation, selects the cost
+	private int [][] chunks;	//Rows of each chunk
+
+	/**
+	 * Constructs a cost function with given network variables, running chunkSize examples at a time.
+	 */
+	public LayeredCost(DoubleMatrix setX, DoubleMatrix setY, Vector<Layer> setLayers, double setLambda,
+			OutputType setOutput, int chunkSize)
+	{
+		X = new DoubleMatrix().copy(setX);
+		Y = new DoubleMatrix().copy(setY);
+		layers = setLayers;
+		lambda = setLambda;
+		output = setOutput;
+		int m = X.getRows();
+		chunkSize = Math.max(1,Math.min(chunkSize,m));
+		chunks = new int[(m+chunkSize-1)/chunkSize][];
+		for (int c = 0; c<chunks.length; c++)
+		{
+			int first = c*chunkSize;
+			chunks[c] = CompactDataset.range(first,Math.min(chunkSize,m-first));
+		}
+	}
+
+	@Override
+	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	{
+		Vector<DoubleMatrix> Theta = LayeredNetwork.reshapeToList(input,layers);
+		double costSum = 0;
+		Vector<DoubleMatrix> DELTA = null;
+		for (int c = 0; c<chunks.length; c++)
+		{
+			DoubleMatrix chunkX = (chunks.length == 1) ? X : X.getRows(chunks[c]);
+			DoubleMatrix chunkY = (chunks.length == 1) ? Y : Y.getRows(chunks[c]);
+			Tuple<Double, Vector<DoubleMatrix>> part = evaluateUnscaled(layers,Theta,chunkX,chunkY,output);
+			costSum += part.getFirst().doubleValue();
+			if (DELTA == null)
+				DELTA = part.getSecond();
+			else
+			{
+				for (int i = 0; i<DELTA.size(); i++)
+				{
+					DELTA.get(i).addi(part.getSecond().get(i));
+				}
+			}
+		}
+		return BackPropCost.regularize(Theta,costSum,DELTA,lambda,X.getRows());
+	}
+
+	/**
+	 * Runs forward and back prop of the given layers over the given examples, without dividing by the number of
+	 * examples and without regularization (see BackPropCost.evaluateUnscaled). Theta holds the weight matrices of the
+	 * layers that have weights, in layer order, and so does the returned DELTA.
+	 */
+	public static Tuple<Double, Vector<DoubleMatrix>> evaluateUnscaled(Vector<Layer> layers, Vector<DoubleMatrix> Theta,
+			DoubleMatrix X, DoubleMatrix Y, OutputType output)
+	{
+		int L = layers.size();
+		DoubleMatrix [] weights = LayeredNetwork.weightsOfLayers(layers,Theta);
+		DoubleMatrix [] a = new DoubleMatrix[L+1];	//a[l] is the input of layer l
+		DoubleMatrix [] z = new DoubleMatrix[L];
+		a[0] = X;
+		for (int l = 0; l<L; l++)
+		{
+			z[l] = layers.get(l).forward(weights[l],a[l]);
+			if (l < L-1)
+				a[l+1] = layers.get(l).activate(z[l]);
+		}
+
+		//The output layer pre-activations are not needed after this, so they become the output error.
+		DoubleMatrix delta = z[L-1];
+		double J_sum = BackPropCost.outputCost(delta,Y,output);
+
+		Vector<DoubleMatrix> DELTA = new Vector<DoubleMatrix>();
+		DoubleMatrix [] gradients = new DoubleMatrix[L];
+		for (int l = 0; l<L; l++)
+		{
+			if (weights[l] != null)
+			{
+				gradients[l] = DoubleMatrix.zeros(weights[l].getRows(),weights[l].getColumns());
+				DELTA.add(gradients[l]);
+			}
+		}
+		for (int l = L-1; l>=0; l--)
+		{
+			DoubleMatrix inputError = layers.get(l).backward(weights[l],a[l],z[l],delta,gradients[l],l > 0);
+			if (l > 0)
+				delta = layers.get(l-1).activationGradient(z[l-1],a[l],inputError);
+		}
+		return new Tuple<Double, Vector<DoubleMatrix>>(Double.valueOf(J_sum),DELTA);
+	}
+}
@@ -0,0 +1,207 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class LayeredNetwork
+ * A neural network built from a list of Layers instead of a topology of fully connected layers, so image inputs can
+ * go through convolution and pooling layers (far fewer weights and operations than a dense first layer) before the
+ * dense layers.
+ *
+ * 	The last layer must be a DenseLayer; its activation is given by the output type, as in NeuralNetwork.
+ * 	The weights are kept as one matrix per layer that has weights (bias column first), trained with fmincg over a
+ * 	LayeredCost.
+ *
+ * 	Usage, for the 20x20 digit images:
+ * 		Vector<Layer> layers = new Vector<Layer>();
+ * 		layers.add(new ConvLayer(1,20,20,6,5));						//6 filters of 5x5: 6x16x16 outputs
+ * 		layers.add(new PoolLayer(6,16,16,4,PoolLayer.Mode.MAX));	//6x4x4 outputs
+ * 		layers.add(new DenseLayer(96,10));
+ * 		LayeredNetwork network = new LayeredNetwork(layers,true);
+ * 		network.train(X,Y,lambda,iters,true);
+ * 		int [] predictions = network.predictClasses(X);
+ */
+
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class LayeredNetwork
+{
+	private Vector<Layer> itsLayers;
+	private Vector<DoubleMatrix> itsTheta;	//Weight matrices of the layers that have weights
+	private OutputType itsOutputType = OutputType.SIGMOID;
+	private int itsChunkSize = 500;			//Examples run through the layers at a time
+
+	/**
+	 * Constructs a network of the given layers, optionally with random weights.
+	 */
+	public LayeredNetwork(Vector<Layer> layers, boolean initWeights)
+	{
+		if (layers.isEmpty() || !(layers.lastElement() instanceof DenseLayer))
+			throw new IllegalArgumentException("The last layer must be a DenseLayer");
+		for (int l = 1; l<layers.size(); l++)
+		{
+			if (layers.get(l).getInputSize() != layers.get(l-1).getOutputSize())
+				throw new IllegalArgumentException("Layer "+l+" has "+layers.get(l).getInputSize()+" inputs but layer "
+						+(l-1)+" has "+layers.get(l-1).getOutputSize()+" outputs");
+		}
+		itsLayers = new Vector<Layer>(layers);
+		if (initWeights)
+			initWeights();
+	}
+
+	/**
+	 * Randomly generates the weights (as NeuralNetwork.generateThetas does).
+	 */
+	public void initWeights()
+	{
+		itsTheta = new Vector<DoubleMatrix>();
+		for (Layer layer : itsLayers)
+		{
+			if (layer.getWeightRows() > 0)
+				itsTheta.add(DoubleMatrix.randn(layer.getWeightRows(),layer.getWeightColumns()));
+		}
+	}
+
+	/**
+	 * Trains the network with fmincg over the given examples.
+	 */
+	public void train(DoubleMatrix inputs, DoubleMatrix outputs, double lambda, int max_iter, boolean verbose)
+	{
+		CostFunction cost = new LayeredCost(inputs,outputs,itsLayers,lambda,itsOutputType,itsChunkSize);
+		DoubleMatrix trained_theta = NeuralNetwork.fmincg(cost,NeuralNetwork.reshapeToVector(itsTheta),max_iter,verbose);
+		itsTheta = reshapeToList(trained_theta,itsLayers);
+	}
+
+	/**
+	 * Returns the output layer before the output activation (see NeuralNetwork.forwardPropOutput)
+	 */
+	public DoubleMatrix forwardPropOutput(DoubleMatrix X)
+	{
+		int m = X.getRows();
+		if (m <= itsChunkSize)
+			return forwardPropOutput(itsLayers,itsTheta,X);
+		DoubleMatrix result = new DoubleMatrix(m,itsLayers.lastElement().getOutputSize());
+		for (int first = 0; first<m; first+=itsChunkSize)
+		{
+			int [] rows = CompactDataset.range(first,Math.min(itsChunkSize,m-first));
+			DoubleMatrix part = forwardPropOutput(itsLayers,itsTheta,X.getRows(rows));
+			for (int j = 0; j<part.getColumns(); j++)
+			{
+				System.arraycopy(part.data,j*rows.length,result.data,j*m+first,rows.length);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the hypothesis of the network for the given inputs.
+	 */
+	public DoubleMatrix hypothesis(DoubleMatrix X)
+	{
+		DoubleMatrix z = forwardPropOutput(X);
+		if (itsOutputType == OutputType.SOFTMAX)
+			return NeuralNetwork.softmax(z);
+		return NeuralNetwork.sigmoid(z);
+	}
+
+	/**
+	 * Returns the index of the predicted class of each example.
+	 */
+	public int [] predictClasses(DoubleMatrix X)
+	{
+		return forwardPropOutput(X).rowArgmaxs();
+	}
+
+	/**
+	 * Returns the output layer of the given layers and weights before the output activation.
+	 */
+	public static DoubleMatrix forwardPropOutput(Vector<Layer> layers, Vector<DoubleMatrix> Theta, DoubleMatrix X)
+	{
+		DoubleMatrix [] weights = weightsOfLayers(layers,Theta);
+		DoubleMatrix a = X;
+		for (int l = 0; l<layers.size(); l++)
+		{
+			DoubleMatrix z = layers.get(l).forward(weights[l],a);
+			if (l == layers.size()-1)
+				return z;
+			a = layers.get(l).activate(z);
+		}
+		return a;
+	}
+
+	/**
+	 * Returns the weight matrix of each layer (null for layers without weights) given the weights of the layers that have them.
+	 */
+	public static DoubleMatrix [] weightsOfLayers(Vector<Layer> layers, Vector<DoubleMatrix> Theta)
+	{
+		DoubleMatrix [] weights = new DoubleMatrix[layers.size()];
+		int w = 0;
+		for (int l = 0; l<layers.size(); l++)
+		{
+			if (layers.get(l).getWeightRows() > 0)
+				weights[l] = Theta.get(w++);
+		}
+		return weights;
+	}
+
+	/**
+	 * Reshapes a column matrix of all the weights (as NeuralNetwork.reshapeToVector makes) into the weight matrices
+	 * of the given layers.
+	 */
+	public static Vector<DoubleMatrix> reshapeToList(DoubleMatrix x, Vector<Layer> layers)
+	{
+		Vector<DoubleMatrix> result = new Vector<DoubleMatrix>();
+		int offset = 0;
+		for (Layer layer : layers)
+		{
+			if (layer.getWeightRows() == 0)
+				continue;
+			DoubleMatrix current = new DoubleMatrix(layer.getWeightRows(),layer.getWeightColumns());
+			System.arraycopy(x.data,offset,current.data,0,current.getLength());
+			offset += current.getLength();
+			result.add(current);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the total number of weights.
+	 */
+	public int getWeightCount()
+	{
+		int count = 0;
+		for (Layer layer : itsLayers)
+		{
+			count += layer.getWeightRows()*layer.getWeightColumns();
+		}
+		return count;
+	}
+
+	public void setTheta(Vector<DoubleMatrix> newTheta)
+	{
+		itsTheta = NeuralNetwork.copyTheta(newTheta);
+	}
+	public Vector<DoubleMatrix> getTheta()
+	{
+		return NeuralNetwork.copyTheta(itsTheta);
+	}
+	public Vector<Layer> getLayers()
+	{
+		return new Vector<Layer>(itsLayers);
+	}
+	public void setOutputType(OutputType newOutputType)
+	{
+		itsOutputType = newOutputType;
+	}
+	public OutputType getOutputType()
+	{
+		return itsOutputType;
+	}
+	public void setChunkSize(int chunkSize)
+	{
+		itsChunkSize = Math.max(1,chunkSize);
+	}
+	public int getChunkSize()
+	{
+		return itsChunkSize;
+	}
+}
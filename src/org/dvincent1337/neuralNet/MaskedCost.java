@@ -0,0 +1,33 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class MaskedCost
+ * This class implements CostFunction by wrapping another cost function and keeping a fixed set of weights at 0.
+ *
+ * 	The mask is a column matrix the same size as the weight column matrix, 1 for weights that are trained and
+ * 	0 for pruned weights. The masked weights are zeroed before the wrapped cost is evaluated and their partial
+ * 	derivatives are zeroed after, so fmincg never moves them away from 0 (see Pruning.pruneAndRetrain).
+ */
+
+import org.jblas.DoubleMatrix;
+
+public class MaskedCost implements CostFunction
+{
+	private CostFunction itsCost;
+	private DoubleMatrix itsMask;
+
+	/**
+	 * Constructs a masked cost function; the mask is a column matrix of 0s and 1s (possibly from NeuralNetwork.reshapeToVector)
+	 */
+	public MaskedCost(CostFunction cost, DoubleMatrix mask)
+	{
+		itsCost = cost;
+		itsMask = mask.dup();
+	}
+
+	@Override
+	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	{
+		Tuple<Double, DoubleMatrix> cost = itsCost.evaluateCost(input.mul(itsMask));
+		return new Tuple<Double, DoubleMatrix>(cost.getFirst(),cost.getSecond().muli(itsMask));
+	}
+}
@@ -0,0 +1,73 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class ModelRegistry
+ * Publishes ModelSnapshots from a training thread to any number of serving threads.
+ *
+ * 	Readers call current() and run predictions on the returned snapshot; this is a single volatile read, so
+ * 	readers never block and never see a half-updated model. A trainer calls publish() with the retrained network,
+ * 	which copies the weights into a new snapshot, optionally warms it up, and only then swaps it in atomically.
+ * 	Readers that are still using the previous snapshot finish with it undisturbed.
+ *
+ * 	Usage:
+ * 		ModelRegistry registry = new ModelRegistry(network, 100);
+ * 		//serving threads:
+ * 			int [] classes = registry.current().predictClasses(X);
+ * 		//training thread:
+ * 			network.trainBP(X,Y,lambda,iters,false);
+ * 			registry.publish(network, 100);
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ModelRegistry
+{
+	private final AtomicReference<ModelSnapshot> itsCurrent = new AtomicReference<ModelSnapshot>();
+	private final AtomicLong itsVersions = new AtomicLong();
+
+	/**
+	 * Constructs a registry serving a snapshot of the given network, warmed up with the given number of rows.
+	 */
+	public ModelRegistry(NeuralNetwork initial, int warmUpRows)
+	{
+		publish(initial,warmUpRows);
+	}
+
+	/**
+	 * Returns the snapshot currently being served.
+	 */
+	public ModelSnapshot current()
+	{
+		return itsCurrent.get();
+	}
+
+	/**
+	 * Makes a snapshot of the given network's weights, warms it up with the given number of rows (0 for none),
+	 * and swaps it in. Returns the new snapshot.
+	 * 	Versions are taken in publish order but warm ups can finish in any order, so the snapshot only replaces a
+	 * 	snapshot with a lower version; if another thread published a newer snapshot in the meantime, that one stays
+	 * 	current and the returned snapshot is never served.
+	 */
+	public ModelSnapshot publish(NeuralNetwork nn, int warmUpRows)
+	{
+		ModelSnapshot snapshot = new ModelSnapshot(nn,itsVersions.incrementAndGet());
+		snapshot.warmUp(warmUpRows);
+		while (true)
+		{
+			ModelSnapshot current = itsCurrent.get();
+			if (current != null && current.getVersion() > snapshot.getVersion())
+				return snapshot;
+			if (itsCurrent.compareAndSet(current,snapshot))
+				return snapshot;
+		}
+	}
+
+	/**
+	 * Swaps in the given snapshot if the snapshot being served is still "expected" (for example to roll back
+	 * only if nobody published in the meantime). Returns true if the swap happened.
+	 */
+	public boolean publishIfCurrent(ModelSnapshot expected, ModelSnapshot snapshot)
+	{
+		return itsCurrent.compareAndSet(expected,snapshot);
+	}
+}
@@ -0,0 +1,115 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class ModelSnapshot
+ * An immutable copy of a trained neural network for serving predictions.
+ *
+ * 	The weight matrices are copied when the snapshot is made and are never changed or handed out afterwards,
+ * 	so any number of threads can run predictions on one snapshot at the same time without locks.
+ * 	The transposes of the weight matrices are computed once when the snapshot is made instead of on every
+ * 	forward prop. Snapshots are usually published to readers through a ModelRegistry.
+ */
+
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public final class ModelSnapshot
+{
+	private final int [] itsTopology;
+	private final OutputType itsOutputType;
+	private final DoubleMatrix [] itsThetaTransposed;	//Transposed weight matrices, (S(j)+1) x S(j+1)
+	private final long itsVersion;
+
+	/**
+	 * Constructs a snapshot of the given network's current weights.
+	 */
+	public ModelSnapshot(NeuralNetwork nn, long version)
+	{
+		this(nn.getTopology(),nn.getTheta(),nn.getOutputType(),version);
+	}
+
+	/**
+	 * Constructs a snapshot of the given weight matrices (they are copied).
+	 */
+	public ModelSnapshot(int [] topology, Vector<DoubleMatrix> Theta, OutputType output, long version)
+	{
+		itsTopology = topology.clone();
+		itsOutputType = output;
+		itsVersion = version;
+		itsThetaTransposed = new DoubleMatrix[Theta.size()];
+		for (int i = 0; i<Theta.size(); i++)
+		{
+			itsThetaTransposed[i] = Theta.get(i).transpose();
+		}
+	}
+
+	/**
+	 * Returns the output layer before the output activation (see NeuralNetwork.forwardPropOutput)
+	 */
+	public DoubleMatrix forwardPropOutput(DoubleMatrix X)
+	{
+		int m = X.getRows();
+		DoubleMatrix a = DoubleMatrix.concatHorizontally(DoubleMatrix.ones(m,1), X);
+		for (int i = 0; i<itsThetaTransposed.length-1; i++)
+		{
+			a = DoubleMatrix.concatHorizontally(DoubleMatrix.ones(m,1), NeuralNetwork.sigmoid(a.mmul(itsThetaTransposed[i])));
+		}
+		return a.mmul(itsThetaTransposed[itsThetaTransposed.length-1]);
+	}
+
+	/**
+	 * Returns the hypothesis (see NeuralNetwork.hypothesisFP)
+	 */
+	public DoubleMatrix hypothesis(DoubleMatrix X)
+	{
+		if (itsOutputType == OutputType.SOFTMAX)
+			return NeuralNetwork.softmax(forwardPropOutput(X));
+		return NeuralNetwork.sigmoid(forwardPropOutput(X));
+	}
+
+	/**
+	 * Returns the predicted class index of each row (see NeuralNetwork.predictClasses)
+	 */
+	public int [] predictClasses(DoubleMatrix X)
+	{
+		return forwardPropOutput(X).rowArgmaxs();
+	}
+
+	/**
+	 * Runs a forward prop over a batch of the given number of zero rows, so the native matrix code and the JIT
+	 * compiled code paths are loaded before the snapshot serves real requests.
+	 */
+	public void warmUp(int rows)
+	{
+		if (rows > 0)
+			forwardPropOutput(DoubleMatrix.zeros(rows,itsTopology[0]));
+	}
+
+	/**
+	 * Returns a new NeuralNetwork with copies of this snapshot's weights (for example to continue training).
+	 */
+	public NeuralNetwork toNetwork()
+	{
+		Vector<DoubleMatrix> Theta = new Vector<DoubleMatrix>(itsThetaTransposed.length);
+		for (int i = 0; i<itsThetaTransposed.length; i++)
+		{
+			Theta.add(itsThetaTransposed[i].transpose());
+		}
+		NeuralNetwork nn = new NeuralNetwork(this.getTopology(),Theta);
+		nn.setOutputType(itsOutputType);
+		return nn;
+	}
+
+	public int [] getTopology()
+	{
+		return itsTopology.clone();
+	}
+	public OutputType getOutputType()
+	{
+		return itsOutputType;
+	}
+	public long getVersion()
+	{
+		return itsVersion;
+	}
+}
@@ -0,0 +1,130 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class MultiModelEvaluator
+ * Runs forward prop of several neural networks with the same number of inputs (an ensemble, hyperparameter
+ * candidates, A/B variants) over one batch, reading the batch only once.
+ *
+ * 	The first weight matrices of all K networks are transposed and placed side by side in one
+ * 	(inputs+1) x (S1(1)+...+SK(1)) matrix, so the first layer of every network is a single matrix product
+ * 	[ones X] * W. The columns of each network's first layer are then sliced out (they are contiguous since matrices
+ * 	are stored column by column) and the remaining layers of each network run on their own, with weights that are
+ * 	transposed once when the evaluator is made. The [ones X] matrix is also built once instead of once per network.
+ *
+ * 	The networks' weights are copied when the evaluator is made; make a new evaluator after retraining.
+ */
+
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class MultiModelEvaluator
+{
+	private int itsInputs;				//Number of inputs of every network
+	private DoubleMatrix itsFirstLayers;	//Transposed first weight matrices side by side
+	private int [] itsOffsets;			//First column of each network in itsFirstLayers, followed by the total columns
+	private DoubleMatrix [][] itsThetaTransposed;	//Transposed weight matrices of the later layers of each network
+	private OutputType [] itsOutputTypes;
+
+	/**
+	 * Constructs an evaluator for the given networks, which must all have the same number of inputs.
+	 */
+	public MultiModelEvaluator(Vector<NeuralNetwork> models)
+	{
+		int K = models.size();
+		if (K == 0)
+			throw new IllegalArgumentException("No models given");
+		itsInputs = models.firstElement().getTopology()[0];
+		itsOffsets = new int[K+1];
+		itsThetaTransposed = new DoubleMatrix[K][];
+		itsOutputTypes = new OutputType[K];
+		Vector<DoubleMatrix> first = new Vector<DoubleMatrix>();
+		for (int k = 0; k<K; k++)
+		{
+			NeuralNetwork nn = models.get(k);
+			if (nn.getTopology()[0] != itsInputs)
+				throw new IllegalArgumentException("Model "+k+" has "+nn.getTopology()[0]+" inputs, expected "+itsInputs);
+			Vector<DoubleMatrix> Theta = nn.getTheta();
+			first.add(Theta.firstElement().transpose());
+			itsOffsets[k+1] = itsOffsets[k]+Theta.firstElement().getRows();
+			itsThetaTransposed[k] = new DoubleMatrix[Theta.size()-1];
+			for (int i = 1; i<Theta.size(); i++)
+			{
+				itsThetaTransposed[k][i-1] = Theta.get(i).transpose();
+			}
+			itsOutputTypes[k] = nn.getOutputType();
+		}
+		itsFirstLayers = new DoubleMatrix(itsInputs+1,itsOffsets[K]);
+		for (int k = 0; k<K; k++)
+		{
+			DoubleMatrix part = first.get(k);
+			System.arraycopy(part.data,0,itsFirstLayers.data,itsOffsets[k]*(itsInputs+1),part.getLength());
+		}
+	}
+
+	/**
+	 * Returns the output layer of each network before the output activation (see NeuralNetwork.forwardPropOutput)
+	 */
+	public Vector<DoubleMatrix> forwardPropOutputs(DoubleMatrix X)
+	{
+		int m = X.getRows();
+		DoubleMatrix z = DoubleMatrix.concatHorizontally(DoubleMatrix.ones(m,1), X).mmul(itsFirstLayers);
+		Vector<DoubleMatrix> outputs = new Vector<DoubleMatrix>(itsThetaTransposed.length);
+		for (int k = 0; k<itsThetaTransposed.length; k++)
+		{
+			int width = itsOffsets[k+1]-itsOffsets[k];
+			DoubleMatrix out = new DoubleMatrix(m,width);
+			System.arraycopy(z.data,itsOffsets[k]*m,out.data,0,m*width);
+			for (int i = 0; i<itsThetaTransposed[k].length; i++)
+			{
+				out = DoubleMatrix.concatHorizontally(DoubleMatrix.ones(m,1), NeuralNetwork.sigmoid(out)).mmul(itsThetaTransposed[k][i]);
+			}
+			outputs.add(out);
+		}
+		return outputs;
+	}
+
+	/**
+	 * Returns the hypothesis of each network (see NeuralNetwork.hypothesisFP)
+	 */
+	public Vector<DoubleMatrix> hypotheses(DoubleMatrix X)
+	{
+		Vector<DoubleMatrix> outputs = forwardPropOutputs(X);
+		for (int k = 0; k<outputs.size(); k++)
+		{
+			if (itsOutputTypes[k] == OutputType.SOFTMAX)
+				outputs.set(k,NeuralNetwork.softmax(outputs.get(k)));
+			else
+				outputs.set(k,NeuralNetwork.sigmoid(outputs.get(k)));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Returns the average of the given hypotheses (which must have the same size), for example of an ensemble.
+	 */
+	public static DoubleMatrix average(Vector<DoubleMatrix> hypotheses)
+	{
+		DoubleMatrix sum = hypotheses.firstElement().dup();
+		for (int k = 1; k<hypotheses.size(); k++)
+		{
+			sum.addi(hypotheses.get(k));
+		}
+		return sum.divi(hypotheses.size());
+	}
+
+	/**
+	 * Returns the averaged hypothesis of all networks (the ensemble prediction).
+	 */
+	public DoubleMatrix ensembleHypothesis(DoubleMatrix X)
+	{
+		return average(hypotheses(X));
+	}
+
+	/**
+	 * Returns the number of networks.
+	 */
+	public int getModels()
+	{
+		return itsThetaTransposed.length;
+	}
+}
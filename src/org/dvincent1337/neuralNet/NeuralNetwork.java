@@ -57,10 +57,13 @@ import org.jblas.DoubleMatrix;
 import org.jblas.MatrixFunctions;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class NeuralNetwork
@@ -68,6 +71,8 @@ public class NeuralNetwork
 
 	private int [] itsTopology; 			//Neural network topology. each element inidcates neuron size on its layer.
 	private Vector<DoubleMatrix> itsTheta;	//Weight matrices between each layer.
+	private OutputType itsOutputType = OutputType.SIGMOID;	//Activation (and training cost) of the output layer.
+	private final AtomicLong itsVersion = new AtomicLong();	//Incremented whenever the weights, topology or output type change.
 
 
 	/**
@@ -86,6 +91,7 @@ public class NeuralNetwork
 	{
 		this.setTopology(nn.getTopology());
 		this.setTheta(nn.getTheta());
+		this.setOutputType(nn.getOutputType());
 	}
 	/**
 	 * Constructs a new neural network, with given topology and weight matrices 
@@ -121,16 +127,47 @@ public class NeuralNetwork
 			double lambda, int max_iter,boolean verbose)
 	{
 		this.setTheta(NeuralNetwork.trainWithBackprop(inputs,outputs,
-				this.getTheta(),this.getTopology(),lambda,max_iter,verbose));
+				this.getTheta(),this.getTopology(),lambda,max_iter,verbose,this.getOutputType()));
 		
 	}
 	
 	/**
-	 * Runs forward prop to find the hypothesis (all elements of resulting matrix are between 0 and 1 inclusively)
+	 * Trains the neural network with mini-batch gradient descent: one gradient descent step (with momentum) on each
+	 * batch of the given (started) pipeline, until the pipeline runs out of batches (see OnlineLearner.update).
+	 * The pipeline prepares the following batches in the background while a batch is being trained on.
+	 */
+	public void trainBatches(BatchPipeline pipeline, double lambda, double learningRate, double momentum, boolean verbose)
+			throws InterruptedException
+	{
+		OnlineLearner learner = new OnlineLearner(this,learningRate,momentum,lambda);
+		Tuple<DoubleMatrix, DoubleMatrix> batch;
+		int batches = 0;
+		while ((batch = pipeline.nextBatch()) != null)
+		{
+			double cost = learner.update(batch.getFirst(),batch.getSecond());
+			batches++;
+			if (verbose)
+				System.out.println("Batch " + batches + " | Cost: " + cost);
+		}
+	}
+	
+	/**
+	 * Trains the neural network by minimizing the given cost function with fmincg
+	 * (for example a DistributedCost whose workers hold the training data).
+	 */
+	public void train(CostFunction cost, int max_iter, boolean verbose)
+	{
+		DoubleMatrix trained_theta = fmincg(cost,reshapeToVector(this.getTheta()),max_iter,verbose);
+		this.setTheta(reshapeToList(trained_theta,this.getTopology()));
+	}
+	
+	/**
+	 * Runs forward prop to find the hypothesis (all elements of resulting matrix are between 0 and 1 inclusively,
+	 * and each row sums to 1 if the output type is SOFTMAX)
 	 */
 	public DoubleMatrix hypothesisFP(DoubleMatrix inputs)
 	{
-		return NeuralNetwork.forwardPropPredict(this.getTheta(), inputs);
+		return NeuralNetwork.forwardPropPredict(itsTheta, inputs, this.getOutputType());
 	}
 	
 	/**
@@ -138,10 +175,9 @@ public class NeuralNetwork
 	 */
 	public DoubleMatrix predictFP(DoubleMatrix inputs)
 	{
-		DoubleMatrix hypothesis = this.hypothesisFP(inputs);
-		int [] maxIndicies= hypothesis.rowArgmaxs();
-		int rows = hypothesis.getRows();
-		int cols = hypothesis.getColumns();
+		int [] maxIndicies= this.predictClasses(inputs);
+		int rows = inputs.getRows();
+		int cols = itsTopology[itsTopology.length-1];
 		DoubleMatrix prediction = DoubleMatrix.zeros(rows,cols);
 		for (int i = 0; i< rows; i++)
 		{
@@ -151,34 +187,119 @@ public class NeuralNetwork
 		
 	}
 	
+	/**
+	 * Runs forward prop and returns the index of the output neuron with the highest value for each row of the inputs.
+	 * The sigmoid does not change which output is the highest, so it is not applied to the output layer.
+	 */
+	public int [] predictClasses(DoubleMatrix inputs)
+	{
+		return NeuralNetwork.forwardPropOutput(itsTheta, inputs).rowArgmaxs();
+	}
+	
+	/**
+	 * Runs forward prop and returns the k output neurons with the highest values for each row of the inputs.
+	 * Returns a Tuple with first element the indices (rows x k, highest first), and the second element their hypothesis values.
+	 * Only the k selected values of each row have the sigmoid applied (a SOFTMAX output also needs the log-sum-exp of each row).
+	 * k must be at least 1.
+	 */
+	public Tuple<int[][], double[][]> predictTopK(DoubleMatrix inputs, int k)
+	{
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1, got "+k);
+		DoubleMatrix output = NeuralNetwork.forwardPropOutput(itsTheta, inputs);
+		int [][] indices = topK(output,k);
+		double [][] scores = new double[indices.length][];
+		for (int i = 0; i<indices.length; i++)
+		{
+			scores[i] = new double[indices[i].length];
+			if (itsOutputType == OutputType.SOFTMAX)
+			{
+				double max = output.get(i,indices[i][0]);
+				double sum = 0;
+				for (int j = 0; j<output.getColumns(); j++)
+				{
+					sum += Math.exp(output.get(i,j)-max);
+				}
+				for (int j = 0; j<indices[i].length; j++)
+				{
+					scores[i][j] = Math.exp(output.get(i,indices[i][j])-max)/sum;
+				}
+			}
+			else
+			{
+				for (int j = 0; j<indices[i].length; j++)
+				{
+					scores[i][j] = 1/(1+Math.exp(-output.get(i,indices[i][j])));
+				}
+			}
+		}
+		return new Tuple<int[][], double[][]>(indices,scores);
+	}
+	
 	/**
 	 * Accessors and mutators:
 	 */
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Sets the weight matrices to copies of the given matrices, so later changes to them do not affect the network.
+	 */
 	public void setTheta(Vector<DoubleMatrix> newTheta)
 	{
-		itsTheta = (Vector<DoubleMatrix>) newTheta.clone();
+		itsTheta = copyTheta(newTheta);
+		itsVersion.incrementAndGet();
 	}
 	public void setTopology(int [] newTopology)
 	{
 		itsTopology = newTopology;
+		itsVersion.incrementAndGet();
+	}
+	public void setOutputType(OutputType newOutputType)
+	{
+		itsOutputType = newOutputType;
+		itsVersion.incrementAndGet();
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Returns copies of the weight matrices, so changes to them do not affect the network.
+	 */
 	public Vector<DoubleMatrix> getTheta()
 	{
-		return (Vector<DoubleMatrix>) itsTheta.clone();
+		return copyTheta(itsTheta);
 	}
 	public int [] getTopology()
 	{
 		return itsTopology;
 	}
+	public OutputType getOutputType()
+	{
+		return itsOutputType;
+	}
+	/**
+	 * Returns a number that changes every time the network's predictions can change (setTheta, training, setTopology
+	 * or setOutputType), so cached predictions can be checked against it (see PredictionCache).
+	 */
+	public long getVersion()
+	{
+		return itsVersion.get();
+	}
 	
 	/**
 	 * Static helper methods designed to aid the process of using a neural network, and for debugging.
 	 */
 	
+	/**
+	 * Returns a new List (in this case Vector) holding a copy of each given weight matrix.
+	 */
+	public static Vector<DoubleMatrix> copyTheta(Vector<DoubleMatrix> Theta)
+	{
+		Vector<DoubleMatrix> result = new Vector<DoubleMatrix>(Theta.size());
+		for (int i = 0; i<Theta.size(); i++)
+		{
+			result.add(Theta.get(i).dup());
+		}
+		return result;
+	}
+	
 	/**
 	 * Prints a matrix to the standard output.
 	 */
@@ -261,6 +382,31 @@ public class NeuralNetwork
 		return result;
 	}
 	
+	/**
+	 * Writes a matrix to an ascii text file in the format read by getMatrixFromTextFile
+	 * (for example to save trained weight matrices for BulkScorer).
+	 */
+	public static void writeMatrixToTextFile(DoubleMatrix matrix, String filename) throws IOException
+	{
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filename));
+		try
+		{
+			for (int i = 0; i<matrix.getRows(); i++)
+			{
+				for (int j = 0; j<matrix.getColumns(); j++)
+				{
+					writer.write(Double.toString(matrix.get(i,j)));
+					writer.write(' ');
+				}
+				writer.newLine();
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+	
 	/**
 	 *  Takes a List (in this case Vector) and takes each element of each DoubleMatrix and places it into a column matrix.
 	 *  note: the reason it is named reshapeToVector has to do with the resulting matrix, not the Java the Vector data structure
@@ -281,15 +427,11 @@ public class NeuralNetwork
 		int offset=0;
 		while(iter.hasNext())
 		{
+			//The elements are stored column by column, which is the order of the reshaped column matrix,
+			//so they are copied directly (the given matrices are left unchanged).
 			x = iter.next();
-			x.reshape(x.getLength(),1);
-			int [] indicies = new int [x.getLength()];
-			for (int i =0;i<x.getLength();i++)
-			{
-				indicies[i] = offset+i;
-			}
+			System.arraycopy(x.data,0,result.data,offset,x.getLength());
 			offset += x.getLength();
-			result.put(indicies,0,x);
 		}		
 		return result;
 	}
@@ -310,11 +452,8 @@ public class NeuralNetwork
 			rows = topology[i+1];
 			cols = topology[i]+1;
 			DoubleMatrix Theta = new DoubleMatrix(rows,cols);
-			for (int j = 0;j<cols;j++)
-			{
-				Theta.putColumn(j,x.getRowRange(offset,offset +rows,0));
-				offset+=rows;
-			}
+			System.arraycopy(x.data,offset,Theta.data,0,rows*cols);	//each column of Theta is the next rows elements of x
+			offset+=rows*cols;
 			result.add(Theta);
 		}
 		return result;
@@ -352,6 +491,70 @@ public class NeuralNetwork
 		return ( (predictions.mul(Y) ).sum() )*100/Y.getRows();		
 	}
 	
+	/**
+	 * Helper function to compute the accuracy (in percent) of predicted class indices given the correct class indices
+	 * (throws an IllegalArgumentException if there are no labels or the arrays have different lengths)
+	 */
+	public static double computeAccuracy(int [] predictions, int [] labels)
+	{
+		if (predictions.length != labels.length)
+			throw new IllegalArgumentException(predictions.length+" predictions for "+labels.length+" labels");
+		if (labels.length == 0)
+			throw new IllegalArgumentException("No labels to compute the accuracy of");
+		int correct = 0;
+		for (int i = 0; i<labels.length; i++)
+		{
+			if (predictions[i] == labels[i])
+				correct++;
+		}
+		return ((double) correct)*100/labels.length;
+	}
+	
+	/**
+	 * Returns the class index of each row of an output matrix (the column holding the 1 of each row).
+	 */
+	public static int [] labelIndices(DoubleMatrix Y)
+	{
+		return Y.rowArgmaxs();
+	}
+	
+	/**
+	 * Returns the column indices of the k highest elements of each row of the given matrix, highest first.
+	 * Uses a partial insertion sort on each row, so the cost is rows*columns*k at worst instead of sorting every row.
+	 * k must be at least 1 (if it is more than the number of columns every column is returned).
+	 */
+	public static int [][] topK(DoubleMatrix x, int k)
+	{
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1, got "+k);
+		int rows = x.getRows();
+		int cols = x.getColumns();
+		k = Math.min(k,cols);
+		int [][] result = new int[rows][k];
+		double [] best = new double[k];
+		for (int i = 0; i<rows; i++)
+		{
+			int [] indices = result[i];
+			int found = 0;
+			for (int j = 0; j<cols; j++)
+			{
+				double value = x.data[i+j*rows];
+				if (found == k && value <= best[k-1])
+					continue;
+				int p = (found < k) ? found++ : k-1;
+				while (p > 0 && best[p-1] < value)
+				{
+					best[p] = best[p-1];
+					indices[p] = indices[p-1];
+					p--;
+				}
+				best[p] = value;
+				indices[p] = j;
+			}
+		}
+		return result;
+	}
+	
 	/**
 	 * Returns a matrix that has the sigmoid function applied to each element of given input matrix
 	 * http://en.wikipedia.org/wiki/Sigmoid_function
@@ -366,6 +569,38 @@ public class NeuralNetwork
 		return result;
 	}
 	
+	/**
+	 * Returns a matrix where each row is the softmax of the same row of given input matrix
+	 * (the exponential of each element divided by the sum of the exponentials of its row).
+	 * The largest element of each row is subtracted first so exp can not overflow.
+	 * http://en.wikipedia.org/wiki/Softmax_function
+	 */
+	public static DoubleMatrix softmax(DoubleMatrix x)
+	{
+		DoubleMatrix result = x.dup();
+		int rows = result.getRows();
+		double [] data = result.data;
+		for (int i = 0; i<rows; i++)
+		{
+			double max = Double.NEGATIVE_INFINITY;
+			for (int j = i; j<data.length; j+=rows)
+			{
+				max = Math.max(max,data[j]);
+			}
+			double sum = 0;
+			for (int j = i; j<data.length; j+=rows)
+			{
+				data[j] = Math.exp(data[j]-max);
+				sum += data[j];
+			}
+			for (int j = i; j<data.length; j+=rows)
+			{
+				data[j] /= sum;
+			}
+		}
+		return result;
+	}
+	
 	/**
 	 * 		Returns a matrix that has the first derivative of the sigmoid function applied
 	 *  to each element of given input matrix.
@@ -385,6 +620,24 @@ public class NeuralNetwork
 	 * http://en.wikipedia.org/wiki/Feedforward_neural_network
 	 */
 	public static DoubleMatrix forwardPropPredict(Vector<DoubleMatrix> Theta, DoubleMatrix X)
+	{
+		return sigmoid(forwardPropOutput(Theta,X));
+	}
+	
+	/**
+	 * Returns the hypothesis of a neural network with the given output layer type.
+	 */
+	public static DoubleMatrix forwardPropPredict(Vector<DoubleMatrix> Theta, DoubleMatrix X, OutputType output)
+	{
+		if (output == OutputType.SOFTMAX)
+			return softmax(forwardPropOutput(Theta,X));
+		return sigmoid(forwardPropOutput(Theta,X));
+	}
+	
+	/**
+	 * Runs forward propagation like forwardPropPredict, but returns the output layer before the sigmoid (or softmax) is applied.
+	 */
+	public static DoubleMatrix forwardPropOutput(Vector<DoubleMatrix> Theta, DoubleMatrix X)
 	{
 		int m = X.getRows();
 		Vector<DoubleMatrix> activations = new Vector<DoubleMatrix>(Theta.size()+1);
@@ -402,10 +655,7 @@ public class NeuralNetwork
 			activations.add(a);
 		}
 
-		DoubleMatrix hypothesis = new DoubleMatrix(m,Theta.lastElement().getColumns());
-		hypothesis = sigmoid(activations.lastElement().mmul(Theta.lastElement().transpose()));
-		
-		return hypothesis;
+		return activations.lastElement().mmul(Theta.lastElement().transpose());
 	}
 	
 	
@@ -696,10 +946,40 @@ public class NeuralNetwork
 	public static Vector<DoubleMatrix> trainWithBackprop(DoubleMatrix X, DoubleMatrix Y,
 			Vector<DoubleMatrix> Theta,int[] topology, double lambda,int max_iter, boolean verbose)
 	{
-		CostFunction bpCost = new BackPropCost(X,Y,topology,lambda);
-		DoubleMatrix trained_theta = fmincg(bpCost,reshapeToVector(Theta),max_iter,verbose);
+		return trainWithBackprop(X,Y,Theta,topology,lambda,max_iter,verbose,OutputType.SIGMOID);
+	}
+	
+	/**
+	 * Trains the neural network using backprop like trainWithBackprop, with the cost of the given output layer type.
+	 * 	If the default TuningProfile was tuned for this topology and found the pipelined engine faster on this machine,
+	 * 	PipelinedBackPropCost is used.
+	 */
+	public static Vector<DoubleMatrix> trainWithBackprop(DoubleMatrix X, DoubleMatrix Y,
+			Vector<DoubleMatrix> Theta,int[] topology, double lambda,int max_iter, boolean verbose, OutputType output)
+	{
+		TuningProfile profile = TuningProfile.getDefault().forTopology(topology);
+		int stages = profile.getInt(TuningProfile.TRAINING_STAGES,1);
+		DoubleMatrix trained_theta;
+		if (stages > 1 && topology.length > 2)
+		{
+			PipelinedBackPropCost pipelined = new PipelinedBackPropCost(X,Y,topology,lambda,output,
+					stages,profile.getInt(TuningProfile.TRAINING_MICRO_BATCH,128));
+			try
+			{
+				trained_theta = fmincg(pipelined,reshapeToVector(Theta),max_iter,verbose);
+			}
+			finally
+			{
+				pipelined.shutdown();
+			}
+		}
+		else
+		{
+			CostFunction bpCost = new BackPropCost(X,Y,topology,lambda,output);
+			trained_theta = fmincg(bpCost,reshapeToVector(Theta),max_iter,verbose);
+		}
 		Vector<DoubleMatrix> result = reshapeToList(trained_theta,topology);
-		
+
 		return result;
 	}
 
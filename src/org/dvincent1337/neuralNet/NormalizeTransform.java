@@ -0,0 +1,50 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class NormalizeTransform
+ * A BatchTransform that subtracts a mean from each input column and divides by its standard deviation.
+ */
+
+import java.util.Random;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.MatrixFunctions;
+
+public class NormalizeTransform implements BatchTransform
+{
+	private DoubleMatrix itsMean;		//Row matrix of the mean of each column
+	private DoubleMatrix itsInvStd;		//Row matrix of one over the standard deviation of each column
+
+	/**
+	 * Constructs a transform with given column means and standard deviations (both row matrices).
+	 * Columns with a standard deviation of 0 are only shifted.
+	 */
+	public NormalizeTransform(DoubleMatrix mean, DoubleMatrix std)
+	{
+		itsMean = mean.dup();
+		itsInvStd = new DoubleMatrix(1,std.getLength());
+		for (int j = 0; j<std.getLength(); j++)
+		{
+			double s = std.get(j);
+			itsInvStd.put(j, s > 0 ? 1/s : 1);
+		}
+	}
+
+	/**
+	 * Constructs a transform with the column means and standard deviations of the given input matrix.
+	 */
+	public static NormalizeTransform fit(DoubleMatrix X)
+	{
+		int m = X.getRows();
+		DoubleMatrix mean = X.columnSums().div(m);
+		DoubleMatrix centered = X.dup().subiRowVector(mean);
+		DoubleMatrix std = MatrixFunctions.sqrt(centered.muli(centered).columnSums().div(m));
+		return new NormalizeTransform(mean,std);
+	}
+
+	@Override
+	public Tuple<DoubleMatrix, DoubleMatrix> transform(DoubleMatrix X, DoubleMatrix Y, Random random)
+	{
+		X.subiRowVector(itsMean).muliRowVector(itsInvStd);
+		return new Tuple<DoubleMatrix, DoubleMatrix>(X,Y);
+	}
+}
@@ -0,0 +1,49 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class OneHotTransform
+ * A BatchTransform that turns an output matrix with one column of class labels into the one-hot output matrix
+ * the network is trained with (the format of digitOutput.txt, where a 1 marks the correct class of each row).
+ */
+
+import java.util.Random;
+
+import org.jblas.DoubleMatrix;
+
+public class OneHotTransform implements BatchTransform
+{
+	private int itsClasses;		//Number of output neurons
+	private int itsFirstLabel;	//Label that maps to the first output neuron
+
+	/**
+	 * Constructs a transform for labels firstLabel ... firstLabel+classes-1
+	 * (for example 1 ... 10 for labels numbered like matlab indices)
+	 */
+	public OneHotTransform(int classes, int firstLabel)
+	{
+		itsClasses = classes;
+		itsFirstLabel = firstLabel;
+	}
+
+	/**
+	 * Constructs a transform for labels 0 ... classes-1
+	 */
+	public OneHotTransform(int classes)
+	{
+		this(classes,0);
+	}
+
+	@Override
+	public Tuple<DoubleMatrix, DoubleMatrix> transform(DoubleMatrix X, DoubleMatrix Y, Random random)
+	{
+		int rows = Y.getRows();
+		DoubleMatrix oneHot = DoubleMatrix.zeros(rows,itsClasses);
+		for (int i = 0; i<rows; i++)
+		{
+			int label = (int) Math.round(Y.get(i,0)) - itsFirstLabel;
+			if (label < 0 || label >= itsClasses)
+				throw new IllegalArgumentException("Label "+Y.get(i,0)+" out of range on row "+i);
+			oneHot.put(i,label,1);
+		}
+		return new Tuple<DoubleMatrix, DoubleMatrix>(X,oneHot);
+	}
+}
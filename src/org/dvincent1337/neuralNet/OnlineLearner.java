@@ -0,0 +1,204 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class OnlineLearner
+ * Trains a live neural network incrementally from a stream of labeled examples, instead of rerunning fmincg over
+ * the full training set.
+ *
+ * 	Each call to update takes a row or a small batch of rows, computes the cost and gradients of that batch with
+ * 	the backprop math of BackPropCost, and takes one gradient descent step (with momentum) on the network's weights.
+ * 	Memory is bounded: besides the weights, only the momentum and an optional replay buffer are kept.
+ * 	If the network's weights are changed by someone else between updates (setTheta, trainBP, ...), the next update
+ * 	starts from the new weights with the momentum reset.
+ *
+ * 	The replay buffer keeps a uniform random sample (reservoir sampling) of up to "capacity" of the examples seen so
+ * 	far, and every update mixes "replay" of those examples into the new batch so the network does not forget older data.
+ * 	If a ModelRegistry is given, a snapshot of the network is published every "publishEvery" updates, so serving
+ * 	threads pick up the fresher model without waiting for a full retrain.
+ *
+ * 	Usage:
+ * 		OnlineLearner learner = new OnlineLearner(network, 0.1, 0.9, lambda);
+ * 		learner.setReplay(5000, 32, seed);
+ * 		learner.setPublishing(registry, 100);
+ * 		for each labeled batch (x,y) that arrives:
+ * 			learner.update(x,y);
+ */
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class OnlineLearner
+{
+	private NeuralNetwork itsNetwork;	//The live network, updated after every step
+	private DoubleMatrix itsTheta;		//Weights as a column matrix
+	private long itsVersion;			//Version of the network when itsTheta was read or written
+	private DoubleMatrix itsVelocity;	//Momentum of each weight
+	private double itsLearningRate;
+	private double itsMomentum;
+	private double itsLambda;			//Used for regularization
+
+	private DoubleMatrix replayX;		//Replay buffer inputs, one example per row
+	private DoubleMatrix replayY;		//Replay buffer outputs, one example per row
+	private int replaySize;				//Rows of the replay buffer in use
+	private int replayPerUpdate;		//Replayed examples mixed into each update
+	private long seen;					//Examples seen so far
+	private Random itsRandom = new Random();
+
+	private ModelRegistry itsRegistry;
+	private int itsPublishEvery;
+	private long updates;
+
+	/**
+	 * Constructs a learner for the given network (which must have its weights initialized).
+	 */
+	public OnlineLearner(NeuralNetwork nn, double learningRate, double momentum, double lambda)
+	{
+		itsNetwork = nn;
+		readNetwork();
+		itsLearningRate = learningRate;
+		itsMomentum = momentum;
+		itsLambda = lambda;
+	}
+
+	/**
+	 * Keeps a replay buffer of up to capacity examples and mixes perUpdate of them into each update.
+	 */
+	public synchronized void setReplay(int capacity, int perUpdate, long seed)
+	{
+		int [] topology = itsNetwork.getTopology();
+		replayX = new DoubleMatrix(capacity,topology[0]);
+		replayY = new DoubleMatrix(capacity,topology[topology.length-1]);
+		replaySize = 0;
+		replayPerUpdate = perUpdate;
+		itsRandom = new Random(seed);
+	}
+
+	/**
+	 * Publishes a snapshot of the network to the given registry every publishEvery updates.
+	 */
+	public synchronized void setPublishing(ModelRegistry registry, int publishEvery)
+	{
+		itsRegistry = registry;
+		itsPublishEvery = publishEvery;
+	}
+
+	/**
+	 * Takes one gradient descent step on the given examples (one per row) plus replayed examples, and updates the network.
+	 * Returns the cost of the batch before the step, or 0 (without a step) if there are no examples to train on.
+	 */
+	public synchronized double update(DoubleMatrix x, DoubleMatrix y)
+	{
+		if (itsNetwork.getVersion() != itsVersion)
+			readNetwork();
+
+		DoubleMatrix batchX = x;
+		DoubleMatrix batchY = y;
+		int replay = Math.min(replayPerUpdate,replaySize);
+		if (replay > 0)
+		{
+			int [] rows = new int[replay];
+			for (int i = 0; i<replay; i++)
+			{
+				rows[i] = itsRandom.nextInt(replaySize);
+			}
+			batchX = DoubleMatrix.concatVertically(x,replayX.getRows(rows));
+			batchY = DoubleMatrix.concatVertically(y,replayY.getRows(rows));
+		}
+		if (batchX.getRows() == 0)
+			return 0;
+
+		int [] topology = itsNetwork.getTopology();
+		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(itsTheta,topology);
+		Tuple<Double, Vector<DoubleMatrix>> unscaled = BackPropCost.evaluateUnscaled(Theta,batchX,batchY,itsNetwork.getOutputType());
+		Tuple<Double, DoubleMatrix> cost = BackPropCost.regularize(Theta,unscaled.getFirst().doubleValue(),
+				unscaled.getSecond(),itsLambda,batchX.getRows());
+
+		//v = momentum*v - rate*gradient; theta = theta + v
+		itsVelocity.muli(itsMomentum).subi(cost.getSecond().muli(itsLearningRate));
+		itsTheta.addi(itsVelocity);
+		itsNetwork.setTheta(NeuralNetwork.reshapeToList(itsTheta,topology));
+		itsVersion = itsNetwork.getVersion();
+
+		remember(x,y);
+		updates++;
+		if (itsRegistry != null && itsPublishEvery > 0 && updates%itsPublishEvery == 0)
+			itsRegistry.publish(itsNetwork,0);
+		return cost.getFirst().doubleValue();
+	}
+
+	/**
+	 * Calls update for every batch of the given stream (for example a BatchPipeline's batches or a network feed).
+	 * Returns the number of updates made.
+	 */
+	public long consume(Iterator<Tuple<DoubleMatrix, DoubleMatrix>> stream)
+	{
+		long count = 0;
+		while (stream.hasNext())
+		{
+			Tuple<DoubleMatrix, DoubleMatrix> batch = stream.next();
+			update(batch.getFirst(),batch.getSecond());
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the network's current weights and starts over with no momentum.
+	 */
+	private void readNetwork()
+	{
+		itsVersion = itsNetwork.getVersion();
+		itsTheta = NeuralNetwork.reshapeToVector(itsNetwork.getTheta());
+		itsVelocity = DoubleMatrix.zeros(itsTheta.getLength(),1);
+	}
+
+	/**
+	 * Adds the given examples to the replay buffer with reservoir sampling, so that the buffer is always a uniform
+	 * sample of every example seen.
+	 */
+	private void remember(DoubleMatrix x, DoubleMatrix y)
+	{
+		for (int i = 0; i<x.getRows(); i++)
+		{
+			seen++;
+			if (replayX == null)
+				continue;
+			int slot;
+			if (replaySize < replayX.getRows())
+				slot = replaySize++;
+			else
+			{
+				long r = (long) (itsRandom.nextDouble()*seen);
+				if (r >= replayX.getRows())
+					continue;
+				slot = (int) r;
+			}
+			replayX.putRow(slot,x.getRow(i));
+			replayY.putRow(slot,y.getRow(i));
+		}
+	}
+
+	/**
+	 * Publishes a snapshot of the network to the registry now (if one was set).
+	 */
+	public synchronized void publish()
+	{
+		if (itsRegistry != null)
+			itsRegistry.publish(itsNetwork,0);
+	}
+
+	public synchronized long getUpdates()
+	{
+		return updates;
+	}
+	public synchronized long getExamplesSeen()
+	{
+		return seen;
+	}
+	public synchronized void setLearningRate(double learningRate)
+	{
+		itsLearningRate = learningRate;
+	}
+}
@@ -0,0 +1,12 @@
+package org.dvincent1337.neuralNet;
+
+/*
+ * The activation of the output layer of a neural network, which also selects the cost function used by BackPropCost:
+ * 	SIGMOID: independent sigmoid outputs with the per-output log loss (any number of outputs may be 1).
+ * 	SOFTMAX: outputs that sum to 1 with the cross-entropy loss (exactly one output is 1, like digitOutput.txt).
+ */
+public enum OutputType
+{
+	SIGMOID,
+	SOFTMAX
+}
@@ -0,0 +1,306 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class PipelinedBackPropCost
+ * This class implements CostFunction with the same cost and gradients as BackPropCost, but runs forward and back
+ * prop as a pipeline over several threads.
+ *
+ * 	The weight layers are split into consecutive groups (stages) with about the same number of weights, and each stage
+ * 	runs on its own thread. The examples are split into micro-batches which flow through the stages: stage s runs forward
+ * 	prop of its layers on a micro-batch and hands the activations to stage s+1, and later receives the error of that
+ * 	micro-batch back from stage s+1, runs back prop of its layers and hands the error to stage s-1. While stage s works on
+ * 	one micro-batch the other stages work on others, so deep networks with wide layers keep several cores busy.
+ *
+ * 	Each stage adds the partial derivatives of its own layers over all micro-batches, so no gradients are exchanged
+ * 	between threads. The first stage admits at most "in flight" micro-batches that have not finished back prop, which
+ * 	bounds the activations held by the pipeline and guarantees the hand-off queues never fill up.
+ *
+ * 	The results match BackPropCost up to floating point rounding (checked with GradientCheck.compareEngines).
+ *
+ * 	evaluateCost may be called from several threads at once (GradientCheck does): every call runs its own set of
+ * 	stages, and the stage threads come from a cached pool, so the stages of one call never wait behind the stages of
+ * 	another. Idle stage threads are kept for later calls until shutdown.
+ */
+
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jblas.DoubleMatrix;
+
+public class PipelinedBackPropCost implements CostFunction
+{
+	private int[] topology;		//Neural network topology
+	private double lambda;		//Used for regularization
+	private OutputType output;	//Output layer activation, selects the cost
+	private int m;				//Number of examples
+	private DoubleMatrix [] inputBatches;	//Micro-batches of [ones X]
+	private DoubleMatrix [] outputBatches;	//Micro-batches of Y
+	private int [] stageStart;	//First weight layer of each stage, followed by the number of weight layers
+	private int inFlight;		//Micro-batches admitted and not yet finished
+	private ExecutorService pool;
+
+	/**
+	 * Constructs a cost function with given neural network variables, running on (at most) the given number of stages
+	 * with micro-batches of the given number of examples.
+	 */
+	public PipelinedBackPropCost(DoubleMatrix setX, DoubleMatrix setY, int [] setTopology, double setLambda,
+			OutputType setOutput, int stages, int microBatch)
+	{
+		topology = setTopology;
+		lambda = setLambda;
+		output = setOutput;
+		m = setX.getRows();
+
+		int batches = (m+microBatch-1)/microBatch;
+		inputBatches = new DoubleMatrix[batches];
+		outputBatches = new DoubleMatrix[batches];
+		for (int b = 0; b<batches; b++)
+		{
+			int first = b*microBatch;
+			int last = Math.min(first+microBatch,m);
+			int [] rows = new int[last-first];
+			for (int i = 0; i<rows.length; i++)
+			{
+				rows[i] = first+i;
+			}
+			inputBatches[b] = DoubleMatrix.concatHorizontally(DoubleMatrix.ones(rows.length,1),setX.getRows(rows));
+			outputBatches[b] = setY.getRows(rows);
+		}
+
+		stageStart = splitLayers(topology,stages);
+		int numStages = stageStart.length-1;
+		inFlight = 2*numStages;
+		pool = Executors.newCachedThreadPool(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r,"PipelinedBackPropCost");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Splits the weight layers of a topology into at most the given number of consecutive groups with about the same
+	 * number of weights. Returns the first layer of each group followed by the number of weight layers.
+	 */
+	public static int [] splitLayers(int [] topology, int stages)
+	{
+		int layers = topology.length-1;
+		stages = Math.max(1,Math.min(stages,layers));
+		long total = 0;
+		for (int i = 0; i<layers; i++)
+		{
+			total += (long) topology[i+1]*(topology[i]+1);
+		}
+		int [] start = new int[stages+1];
+		long cumulative = 0;
+		int stage = 1;
+		for (int i = 0; i<layers && stage<stages; i++)
+		{
+			cumulative += (long) topology[i+1]*(topology[i]+1);
+			//close the stage once it has its share, leaving at least one layer for each remaining stage
+			if ((cumulative*stages >= total*stage || layers-(i+1) == stages-stage) && i+1 > start[stage-1])
+			{
+				start[stage++] = i+1;
+			}
+		}
+		start[stages] = layers;
+		return start;
+	}
+
+	/**
+	 * Stops the stage threads.
+	 */
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+
+	@Override
+	public Tuple<Double, DoubleMatrix> evaluateCost(DoubleMatrix input)
+	{
+		Vector<DoubleMatrix> Theta = NeuralNetwork.reshapeToList(input,topology);
+		int numStages = stageStart.length-1;
+
+		Stage [] stages = new Stage[numStages];
+		for (int s = 0; s<numStages; s++)
+		{
+			stages[s] = new Stage(s,Theta);
+		}
+		for (int s = 0; s<numStages; s++)
+		{
+			stages[s].previous = (s > 0) ? stages[s-1] : null;
+			stages[s].next = (s < numStages-1) ? stages[s+1] : null;
+		}
+
+		CompletionService<Object> completion = new ExecutorCompletionService<Object>(pool);
+		Vector<Future<Object>> futures = new Vector<Future<Object>>();
+		for (int s = 0; s<numStages; s++)
+		{
+			futures.add(completion.submit(stages[s]));
+		}
+		try
+		{
+			for (int s = 0; s<numStages; s++)
+			{
+				completion.take().get();
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			for (int s = 0; s<numStages; s++)
+			{
+				futures.get(s).cancel(true);
+			}
+			Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+			throw new RuntimeException("Pipelined evaluation failed",cause);
+		}
+
+		Vector<DoubleMatrix> DELTA = new Vector<DoubleMatrix>();
+		for (int s = 0; s<numStages; s++)
+		{
+			DELTA.addAll(stages[s].gradients);
+		}
+		return BackPropCost.regularize(Theta,stages[numStages-1].cost,DELTA,lambda,m);
+	}
+
+	/**
+	 * A message handed between stages: the activations (forward) or the error (backward) of one micro-batch.
+	 */
+	private static class Message
+	{
+		final int batch;
+		final boolean backward;
+		final DoubleMatrix data;
+
+		Message(int setBatch, boolean setBackward, DoubleMatrix setData)
+		{
+			batch = setBatch;
+			backward = setBackward;
+			data = setData;
+		}
+	}
+
+	/**
+	 * One stage of the pipeline for one evaluation: a group of weight layers and their partial derivatives.
+	 */
+	private class Stage implements Callable<Object>
+	{
+		final int index;
+		final int first;		//First weight layer of this stage
+		final int last;			//One past the last weight layer of this stage
+		final DoubleMatrix [] ThetaT;		//Transposed weights of this stage's layers
+		final DoubleMatrix [] ThetaNoBias;	//Weights of this stage's layers without the bias column
+		final Vector<DoubleMatrix> gradients = new Vector<DoubleMatrix>();
+		final ArrayBlockingQueue<Message> inbox = new ArrayBlockingQueue<Message>(2*inFlight);
+		final HashMap<Integer, DoubleMatrix[]> stash = new HashMap<Integer, DoubleMatrix[]>();	//Layer inputs of each micro-batch
+		Stage previous;
+		Stage next;
+		double cost;			//Summed cost (last stage only)
+
+		Stage(int setIndex, Vector<DoubleMatrix> Theta)
+		{
+			index = setIndex;
+			first = stageStart[index];
+			last = stageStart[index+1];
+			ThetaT = new DoubleMatrix[last-first];
+			ThetaNoBias = new DoubleMatrix[last-first];
+			for (int l = first; l<last; l++)
+			{
+				DoubleMatrix current = Theta.get(l);
+				ThetaT[l-first] = current.transpose();
+				int rows = current.getRows();
+				ThetaNoBias[l-first] = new DoubleMatrix(rows,current.getColumns()-1);
+				System.arraycopy(current.data,rows,ThetaNoBias[l-first].data,0,ThetaNoBias[l-first].getLength());
+				gradients.add(DoubleMatrix.zeros(rows,current.getColumns()));
+			}
+		}
+
+		public Object call() throws InterruptedException
+		{
+			int batches = inputBatches.length;
+			int admitted = 0;
+			int finished = 0;
+			while (finished < batches)
+			{
+				Message message;
+				if (index == 0 && admitted < batches && admitted-finished < inFlight)
+				{
+					message = new Message(admitted,false,inputBatches[admitted]);
+					admitted++;
+				}
+				else
+				{
+					message = inbox.take();
+				}
+
+				if (!message.backward)
+				{
+					DoubleMatrix error = forward(message.batch,message.data);
+					if (error == null)
+						continue;
+					message = new Message(message.batch,true,error);	//last stage: start back prop right away
+				}
+				backward(message.batch,message.data);
+				finished++;
+			}
+			return null;
+		}
+
+		/**
+		 * Runs forward prop of this stage's layers. Hands the activations to the next stage and returns null,
+		 * or on the last stage returns the error of the output layer.
+		 */
+		DoubleMatrix forward(int batch, DoubleMatrix a) throws InterruptedException
+		{
+			DoubleMatrix [] inputs = new DoubleMatrix[last-first];
+			for (int l = first; l<last; l++)
+			{
+				inputs[l-first] = a;
+				DoubleMatrix z = a.mmul(ThetaT[l-first]);
+				if (l == topology.length-2)
+				{
+					stash.put(batch,inputs);
+					cost += BackPropCost.outputCost(z,outputBatches[batch],output);
+					return z;
+				}
+				a = DoubleMatrix.concatHorizontally(DoubleMatrix.ones(z.getRows(),1),NeuralNetwork.sigmoid(z));
+			}
+			stash.put(batch,inputs);
+			next.inbox.put(new Message(batch,false,a));
+			return null;
+		}
+
+		/**
+		 * Given the error of this stage's last layer, adds the partial derivatives of this stage's layers and hands
+		 * the error of the layer before to the previous stage.
+		 */
+		void backward(int batch, DoubleMatrix delta) throws InterruptedException
+		{
+			DoubleMatrix [] inputs = stash.remove(batch);
+			for (int l = last-1; l>=first; l--)
+			{
+				DoubleMatrix a = inputs[l-first];
+				gradients.get(l-first).addi(delta.transpose().mmul(a));
+				if (l == 0)
+					break;
+				//matlab: delta = (delta*Theta(:,2:end)) .* a(:,2:end).*(1-a(:,2:end))
+				DoubleMatrix activation = new DoubleMatrix(a.getRows(),a.getColumns()-1);
+				System.arraycopy(a.data,a.getRows(),activation.data,0,activation.getLength());
+				delta = delta.mmul(ThetaNoBias[l-first]).muli(activation.mul(activation.rsub(1)));
+			}
+			if (previous != null)
+				previous.inbox.put(new Message(batch,true,delta));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class PoolLayer
+ * A pooling layer without weights: every channel of the image is split into size x size windows (rows and columns that
+ * do not fill a whole window are dropped), and each window is reduced to its largest value (MAX) or its mean (MEAN).
+ * The outputs are not passed through an activation.
+ */
+
+import org.jblas.DoubleMatrix;
+
+public class PoolLayer implements Layer
+{
+	/**
+	 * How each window is reduced.
+	 */
+	public enum Mode
+	{
+		MAX,
+		MEAN
+	}
+
+	private int itsChannels;
+	private int itsHeight;
+	private int itsWidth;
+	private int itsSize;		//Window width and height
+	private Mode itsMode;
+	private int itsOutHeight;
+	private int itsOutWidth;
+
+	/**
+	 * Constructs a layer pooling size x size windows of images of the given channels, height and width.
+	 */
+	public PoolLayer(int channels, int height, int width, int size, Mode mode)
+	{
+		if (size > height || size > width)
+			throw new IllegalArgumentException("Window size "+size+" does not fit a "+height+"x"+width+" image");
+		itsChannels = channels;
+		itsHeight = height;
+		itsWidth = width;
+		itsSize = size;
+		itsMode = mode;
+		itsOutHeight = height/size;
+		itsOutWidth = width/size;
+	}
+
+	public int getInputSize()
+	{
+		return itsChannels*itsHeight*itsWidth;
+	}
+	public int getOutputSize()
+	{
+		return itsChannels*itsOutHeight*itsOutWidth;
+	}
+	public int getWeightRows()
+	{
+		return 0;
+	}
+	public int getWeightColumns()
+	{
+		return 0;
+	}
+	public int getOutputHeight()
+	{
+		return itsOutHeight;
+	}
+	public int getOutputWidth()
+	{
+		return itsOutWidth;
+	}
+
+	public DoubleMatrix forward(DoubleMatrix Theta, DoubleMatrix a)
+	{
+		int m = a.getRows();
+		DoubleMatrix z = new DoubleMatrix(m,getOutputSize());
+		for (int c = 0; c<itsChannels; c++)
+		{
+			for (int ox = 0; ox<itsOutWidth; ox++)
+			{
+				for (int oy = 0; oy<itsOutHeight; oy++)
+				{
+					int target = (c*itsOutHeight*itsOutWidth + ox*itsOutHeight + oy)*m;
+					int first = inputIndex(c,ox,oy,0,0)*m;
+					System.arraycopy(a.data,first,z.data,target,m);
+					for (int d = 1; d<itsSize*itsSize; d++)
+					{
+						int source = inputIndex(c,ox,oy,d/itsSize,d%itsSize)*m;
+						for (int i = 0; i<m; i++)
+						{
+							if (itsMode == Mode.MAX)
+								z.data[target+i] = Math.max(z.data[target+i],a.data[source+i]);
+							else
+								z.data[target+i] += a.data[source+i];
+						}
+					}
+				}
+			}
+		}
+		if (itsMode == Mode.MEAN)
+			z.divi(itsSize*itsSize);
+		return z;
+	}
+
+	public DoubleMatrix activate(DoubleMatrix z)
+	{
+		return z;
+	}
+
+	/**
+	 * MEAN spreads the error of each window evenly over it, MAX passes it to the (first) input that was the largest.
+	 */
+	public DoubleMatrix backward(DoubleMatrix Theta, DoubleMatrix a, DoubleMatrix z, DoubleMatrix delta,
+			DoubleMatrix DELTA, boolean propagate)
+	{
+		if (!propagate)
+			return null;
+		int m = a.getRows();
+		int window = itsSize*itsSize;
+		DoubleMatrix error = new DoubleMatrix(m,getInputSize());
+		for (int c = 0; c<itsChannels; c++)
+		{
+			for (int ox = 0; ox<itsOutWidth; ox++)
+			{
+				for (int oy = 0; oy<itsOutHeight; oy++)
+				{
+					int output = (c*itsOutHeight*itsOutWidth + ox*itsOutHeight + oy)*m;
+					for (int i = 0; i<m; i++)
+					{
+						for (int d = 0; d<window; d++)
+						{
+							int input = inputIndex(c,ox,oy,d/itsSize,d%itsSize)*m+i;
+							if (itsMode == Mode.MEAN)
+								error.data[input] = delta.data[output+i]/window;
+							else if (a.data[input] == z.data[output+i])
+							{
+								error.data[input] = delta.data[output+i];
+								break;
+							}
+						}
+					}
+				}
+			}
+		}
+		return error;
+	}
+
+	public DoubleMatrix activationGradient(DoubleMatrix z, DoubleMatrix a, DoubleMatrix gradient)
+	{
+		return gradient;
+	}
+
+	/**
+	 * Returns the input index of position (dx,dy) of the window of output (ox,oy) of channel c.
+	 */
+	private int inputIndex(int c, int ox, int oy, int dx, int dy)
+	{
+		return c*itsHeight*itsWidth + (ox*itsSize+dx)*itsHeight + oy*itsSize+dy;
+	}
+}
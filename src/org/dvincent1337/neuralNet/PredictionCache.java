@@ -0,0 +1,320 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class PredictionCache
+ * A bounded least-recently-used cache of hypothesis rows keyed by input rows, for scoring traffic where the
+ * same feature vectors repeat (see CachedPredictor).
+ *
+ * 	Keys are two independent 64-bit hashes of the input row and the model version (a 128-bit fingerprint), so the
+ * 	input rows themselves are not stored. All entries live in flat primitive arrays allocated once: the hashes, the
+ * 	cached hypothesis values (capacity x outputs doubles), the LRU list links, and an open addressing hash table.
+ * 	No objects are created per entry, so the memory used is fixed by the capacity and reported by getMemoryBytes.
+ *
+ * 	The cache remembers the model version its entries were computed with; as soon as a lookup or store uses a
+ * 	different version (the network was retrained or given new weights) every entry is dropped.
+ */
+
+import java.util.Arrays;
+
+import org.jblas.DoubleMatrix;
+
+public class PredictionCache
+{
+	private final int itsCapacity;
+	private final int itsOutputs;		//Hypothesis values per entry
+	private final long [] itsHash;		//First hash of each entry's key (also picks the table position)
+	private final long [] itsCheck;		//Second hash of each entry's key
+	private final double [] itsValues;	//Hypothesis row of each entry
+	private final int [] itsNewer;		//LRU list: next more recently used entry, or -1
+	private final int [] itsOlder;		//LRU list: next less recently used entry, or -1
+	private final int [] itsTable;		//Open addressing table of entry index + 1 (0 is empty)
+	private final int itsMask;
+	private int itsSize;
+	private int itsNewest = -1;
+	private int itsOldest = -1;
+	private long itsVersion = Long.MIN_VALUE;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Constructs a cache of up to capacity hypothesis rows of the given number of outputs.
+	 */
+	public PredictionCache(int capacity, int outputs)
+	{
+		itsCapacity = capacity;
+		itsOutputs = outputs;
+		itsHash = new long[capacity];
+		itsCheck = new long[capacity];
+		itsValues = new double[capacity*outputs];
+		itsNewer = new int[capacity];
+		itsOlder = new int[capacity];
+		int tableSize = Integer.highestOneBit(Math.max(2,capacity*2-1))*2;
+		itsTable = new int[tableSize];
+		itsMask = tableSize-1;
+	}
+
+	/**
+	 * Returns the two hashes of each row of X (hashes[0] and hashes[1]), mixed with the given model version.
+	 */
+	public static long [][] hashRows(DoubleMatrix X, long version)
+	{
+		int rows = X.getRows();
+		long [][] hashes = new long[2][rows];
+		for (int i = 0; i<rows; i++)
+		{
+			long h1 = mix(version ^ 0x9E3779B97F4A7C15L);
+			long h2 = mix(version + 0xC2B2AE3D27D4EB4FL);
+			for (int k = i; k<X.data.length; k+=rows)
+			{
+				long bits = Double.doubleToLongBits(X.data[k]);
+				h1 = (h1 ^ bits)*0x100000001B3L + 0x9E3779B97F4A7C15L;
+				h2 = Long.rotateLeft(h2 + bits*0xC2B2AE3D27D4EB4FL,31)*0x9E3779B97F4A7C15L;
+			}
+			hashes[0][i] = mix(h1);
+			hashes[1][i] = mix(h2);
+		}
+		return hashes;
+	}
+
+	/**
+	 * Looks up each row (by its hashes) for the given model version. Copies the cached hypothesis of every hit into
+	 * the same row of result, and writes the row index of every miss into misses. Returns the number of misses.
+	 */
+	public synchronized int lookup(long [][] hashes, long version, DoubleMatrix result, int [] misses)
+	{
+		checkVersion(version);
+		int rows = result.getRows();
+		int missCount = 0;
+		for (int i = 0; i<rows; i++)
+		{
+			int entry = find(hashes[0][i],hashes[1][i]);
+			if (entry < 0)
+			{
+				misses[missCount++] = i;
+				continue;
+			}
+			hits++;
+			touch(entry);
+			int offset = entry*itsOutputs;
+			for (int j = 0; j<itsOutputs; j++)
+			{
+				result.data[i+j*rows] = itsValues[offset+j];
+			}
+		}
+		this.misses += missCount;
+		return missCount;
+	}
+
+	/**
+	 * Stores row r of values as the hypothesis of input row rows[r] (whose hashes are given), for r < count.
+	 * Nothing is stored if the model version changed since the values were computed.
+	 */
+	public synchronized void store(long [][] hashes, int [] rows, int count, long version, DoubleMatrix values)
+	{
+		if (version != itsVersion || itsCapacity == 0)
+			return;
+		int valueRows = values.getRows();
+		for (int r = 0; r<count; r++)
+		{
+			long hash = hashes[0][rows[r]];
+			long check = hashes[1][rows[r]];
+			int entry = find(hash,check);
+			if (entry < 0)
+			{
+				if (itsSize < itsCapacity)
+					entry = itsSize++;
+				else
+				{
+					entry = itsOldest;
+					unlink(entry);
+					tableRemove(entry);
+					evictions++;
+				}
+				itsHash[entry] = hash;
+				itsCheck[entry] = check;
+				tableInsert(entry);
+				linkNewest(entry);
+			}
+			else
+			{
+				touch(entry);
+			}
+			int offset = entry*itsOutputs;
+			for (int j = 0; j<itsOutputs; j++)
+			{
+				itsValues[offset+j] = values.data[r+j*valueRows];
+			}
+		}
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void clear()
+	{
+		Arrays.fill(itsTable,0);
+		itsSize = 0;
+		itsNewest = -1;
+		itsOldest = -1;
+	}
+
+	/**
+	 * Metrics:
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+	public synchronized long getInvalidations()
+	{
+		return invalidations;
+	}
+	public synchronized double getHitRate()
+	{
+		long lookups = hits+misses;
+		return lookups == 0 ? 0 : ((double) hits)/lookups;
+	}
+	public synchronized int getSize()
+	{
+		return itsSize;
+	}
+
+	/**
+	 * Returns the number of bytes used by the cache's arrays (fixed by the capacity).
+	 */
+	public long getMemoryBytes()
+	{
+		return 16L*itsCapacity + 8L*itsValues.length + 8L*itsCapacity + 4L*itsTable.length;
+	}
+
+	/**
+	 * Drops every entry if the given version is not the version of the cached entries.
+	 */
+	private void checkVersion(long version)
+	{
+		if (version != itsVersion)
+		{
+			if (itsSize > 0)
+				invalidations++;
+			clear();
+			itsVersion = version;
+		}
+	}
+
+	/**
+	 * Returns the entry with the given hashes, or -1.
+	 */
+	private int find(long hash, long check)
+	{
+		int i = slot(hash);
+		while (itsTable[i] != 0)
+		{
+			int entry = itsTable[i]-1;
+			if (itsHash[entry] == hash && itsCheck[entry] == check)
+				return entry;
+			i = (i+1) & itsMask;
+		}
+		return -1;
+	}
+
+	private int slot(long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & itsMask;
+	}
+
+	private void tableInsert(int entry)
+	{
+		int i = slot(itsHash[entry]);
+		while (itsTable[i] != 0)
+		{
+			i = (i+1) & itsMask;
+		}
+		itsTable[i] = entry+1;
+	}
+
+	/**
+	 * Removes an entry from the table, moving later entries of the same probe run back so lookups still find them.
+	 */
+	private void tableRemove(int entry)
+	{
+		int i = slot(itsHash[entry]);
+		while (itsTable[i] != entry+1)
+		{
+			i = (i+1) & itsMask;
+		}
+		itsTable[i] = 0;
+		int j = i;
+		while (true)
+		{
+			j = (j+1) & itsMask;
+			if (itsTable[j] == 0)
+				return;
+			int home = slot(itsHash[itsTable[j]-1]);
+			//the entry at j can fill the hole at i unless its home lies cyclically in (i, j]
+			boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+			if (!stays)
+			{
+				itsTable[i] = itsTable[j];
+				itsTable[j] = 0;
+				i = j;
+			}
+		}
+	}
+
+	private void touch(int entry)
+	{
+		if (entry != itsNewest)
+		{
+			unlink(entry);
+			linkNewest(entry);
+		}
+	}
+
+	private void unlink(int entry)
+	{
+		int newer = itsNewer[entry];
+		int older = itsOlder[entry];
+		if (newer >= 0)
+			itsOlder[newer] = older;
+		else
+			itsNewest = older;
+		if (older >= 0)
+			itsNewer[older] = newer;
+		else
+			itsOldest = newer;
+	}
+
+	private void linkNewest(int entry)
+	{
+		itsNewer[entry] = -1;
+		itsOlder[entry] = itsNewest;
+		if (itsNewest >= 0)
+			itsNewer[itsNewest] = entry;
+		itsNewest = entry;
+		if (itsOldest < 0)
+			itsOldest = entry;
+	}
+
+	/**
+	 * 64-bit finalizer (from MurmurHash3) so every input bit affects every output bit.
+	 */
+	private static long mix(long h)
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,258 @@
+package org.dvincent1337.neuralNet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.jblas.DoubleMatrix;
+
+/*
+* Checks PredictionCache and CachedPredictor: least recently used eviction, removal and reinsertion in probe runs
+* that wrap around the end of the hash table, invalidation when the network changes, and that cached rows are the
+* network's hypothesisFP rows.
+* Prints a report for each check and exits with status 1 if any check fails.
+*/
+
+
+public class PredictionCacheTest
+{
+	static final double TOLERANCE = 1e-12;
+
+	public static void main(String[] args)
+	{
+		boolean passed = true;
+
+		passed &= check("PredictionCache evicts the least recently used entry",evictionOrder());
+		passed &= check("PredictionCache remove and reinsert in a wrapped probe run",wrappedProbeRun());
+		passed &= check("PredictionCache matches an LRU map under random colliding keys",matchesLruMap(2000,1337));
+
+		int[] topology = {12,7,4};
+		org.jblas.util.Random.seed(1337);
+		NeuralNetwork nn = new NeuralNetwork(topology,true);
+		DoubleMatrix distinct = DoubleMatrix.randn(30,topology[0]);
+		int [] rows = new int[200];
+		Random random = new Random(42);
+		for (int i = 0; i<rows.length; i++)
+		{
+			rows[i] = random.nextInt(distinct.getRows());
+		}
+		DoubleMatrix X = distinct.getRows(rows);	//repeated rows
+
+		passed &= check("CachedPredictor rows equal hypothesisFP",cachedRowsMatch(nn,X,64));
+		passed &= check("CachedPredictor rows equal hypothesisFP with evictions",cachedRowsMatch(nn,X,8));
+		passed &= check("CachedPredictor drops entries after setTheta",invalidatedBySetTheta(nn,X));
+
+		if (!passed)
+		{
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	static boolean check(String name, boolean passed)
+	{
+		System.out.println(name+": "+(passed ? "passed" : "FAILED"));
+		return passed;
+	}
+
+	/**
+	 * Fills a cache of 3, uses the first entry again and stores a fourth: the second entry (least recently used)
+	 * must be the one evicted.
+	 */
+	static boolean evictionOrder()
+	{
+		PredictionCache cache = new PredictionCache(3,1);
+		long [][] keys = keys(101,102,103,104);
+		if (lookup(cache,keys,0,0,1,2) != 3)
+			return false;
+		store(cache,keys,0,0,1,2);
+		if (lookup(cache,keys,0,0) != 0)	//0 is now the most recently used
+			return false;
+		store(cache,keys,0,3);
+		return cache.getEvictions() == 1 && cache.getSize() == 3
+				&& lookup(cache,keys,0,1) == 1 && lookup(cache,keys,0,0,2,3) == 0
+				&& hasValues(cache,keys,0,0,2,3);
+	}
+
+	/**
+	 * Stores 4 keys with the same home slot 6 in a table of 8 (capacity 4), so the probe run is 6, 7, 0, 1. Evicting
+	 * the key in slot 6 must move the rest of the run back across the end of the table so all of them are still found,
+	 * and the evicted key must be found again once it is stored again. Entries after a hole at the end of the table
+	 * whose home slot is past the end must stay where they are.
+	 */
+	static boolean wrappedProbeRun()
+	{
+		PredictionCache cache = new PredictionCache(4,1);
+		long [][] keys = keys(6,14,22,30,5);	//slots 6, 6, 6, 6 and 5
+		lookup(cache,keys,0,0);
+		store(cache,keys,0,0,1,2,3);
+		if (lookup(cache,keys,0,0,1,2,3) != 0 || !hasValues(cache,keys,0,0,1,2,3))
+			return false;
+		store(cache,keys,0,4);	//evicts key 0 from slot 6
+		if (lookup(cache,keys,0,0) != 1 || lookup(cache,keys,0,1,2,3,4) != 0 || !hasValues(cache,keys,0,1,2,3,4))
+			return false;
+		store(cache,keys,0,0);	//evicts key 1, the least recently used
+		if (cache.getEvictions() != 2 || lookup(cache,keys,0,1) != 1
+				|| lookup(cache,keys,0,0,2,3,4) != 0 || !hasValues(cache,keys,0,0,2,3,4))
+			return false;
+
+		//keys in slots 7, 0 and 1 where the last two have home slot 0: evicting the key in slot 7 must leave them
+		cache = new PredictionCache(4,1);
+		keys = keys(7,8,16,3,4);	//slots 7, 0, 0, 3 and 4
+		lookup(cache,keys,0,0);
+		store(cache,keys,0,0,1,2,3);
+		store(cache,keys,0,4);	//evicts key 0 from slot 7
+		return lookup(cache,keys,0,0) == 1 && hasValues(cache,keys,0,1,2,3,4);
+	}
+
+	/**
+	 * Runs random lookups and stores of keys that share a few home slots near the end of the table, and returns true
+	 * if every hit, miss and cached value agrees with a LinkedHashMap in access order.
+	 */
+	static boolean matchesLruMap(int steps, long seed)
+	{
+		final int capacity = 5;
+		PredictionCache cache = new PredictionCache(capacity,1);	//table of 16
+		LinkedHashMap<Integer, Double> reference = new LinkedHashMap<Integer, Double>(16,0.75f,true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Double> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+		long [] hashes = new long[12];
+		for (int k = 0; k<hashes.length; k++)
+		{
+			hashes[k] = 13+k%3+16*k;	//slots 13, 14 and 15
+		}
+		long [][] keys = keys(hashes);
+		Random random = new Random(seed);
+		lookup(cache,keys,0,0);
+		for (int step = 0; step<steps; step++)
+		{
+			int key = random.nextInt(hashes.length);
+			if (random.nextBoolean())
+			{
+				DoubleMatrix result = new DoubleMatrix(1,1);
+				int [] misses = new int[1];
+				boolean hit = cache.lookup(new long [][] {{keys[0][key]},{keys[1][key]}},0,result,misses) == 0;
+				Double expected = reference.get(key);
+				if (hit != (expected != null) || (hit && result.get(0) != expected.doubleValue()))
+					return false;
+			}
+			else
+			{
+				double value = step;
+				cache.store(new long [][] {{keys[0][key]},{keys[1][key]}},new int [] {0},1,0,new DoubleMatrix(1,1,value));
+				reference.put(key,value);
+			}
+			if (cache.getSize() != reference.size())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a CachedPredictor with the given capacity gives the same rows as hypothesisFP, both the first
+	 * time (misses) and the second time (mostly hits).
+	 */
+	static boolean cachedRowsMatch(NeuralNetwork nn, DoubleMatrix X, int capacity)
+	{
+		CachedPredictor predictor = new CachedPredictor(nn,capacity);
+		DoubleMatrix expected = nn.hypothesisFP(X);
+		DoubleMatrix first = predictor.hypothesisFP(X);
+		DoubleMatrix second = predictor.hypothesisFP(X);
+		return predictor.getCache().getHits() > 0 && close(first,expected) && close(second,expected);
+	}
+
+	/**
+	 * Returns true if, after setTheta, a CachedPredictor drops its entries and returns the new network's rows.
+	 */
+	static boolean invalidatedBySetTheta(NeuralNetwork nn, DoubleMatrix X)
+	{
+		CachedPredictor predictor = new CachedPredictor(nn,64);
+		DoubleMatrix before = predictor.hypothesisFP(X);
+		predictor.hypothesisFP(X);
+		long hits = predictor.getCache().getHits();
+		nn.setTheta(NeuralNetwork.generateThetas(nn.getTopology()));
+		DoubleMatrix after = predictor.hypothesisFP(X);
+		PredictionCache cache = predictor.getCache();
+		return cache.getInvalidations() == 1 && cache.getHits() == hits
+				&& close(after,nn.hypothesisFP(X)) && !close(after,before);
+	}
+
+	/**
+	 * Returns keys with the given first hashes (which for hashes below 2^32 pick table slot hash & mask) and
+	 * distinct second hashes.
+	 */
+	static long [][] keys(long... hashes)
+	{
+		long [][] keys = new long[2][hashes.length];
+		for (int k = 0; k<hashes.length; k++)
+		{
+			keys[0][k] = hashes[k];
+			keys[1][k] = 1000+k;
+		}
+		return keys;
+	}
+
+	/**
+	 * Looks up the given keys with the given version and returns the number of misses.
+	 */
+	static int lookup(PredictionCache cache, long [][] keys, long version, int... which)
+	{
+		return cache.lookup(select(keys,which),version,new DoubleMatrix(which.length,1),new int[which.length]);
+	}
+
+	/**
+	 * Stores the given keys with the key index as their value.
+	 */
+	static void store(PredictionCache cache, long [][] keys, long version, int... which)
+	{
+		DoubleMatrix values = new DoubleMatrix(which.length,1);
+		int [] rows = new int[which.length];
+		for (int r = 0; r<which.length; r++)
+		{
+			values.put(r,which[r]);
+			rows[r] = r;
+		}
+		cache.store(select(keys,which),rows,which.length,version,values);
+	}
+
+	/**
+	 * Returns true if every given key is cached with the value store gave it.
+	 */
+	static boolean hasValues(PredictionCache cache, long [][] keys, long version, int... which)
+	{
+		DoubleMatrix result = new DoubleMatrix(which.length,1);
+		if (cache.lookup(select(keys,which),version,result,new int[which.length]) != 0)
+			return false;
+		for (int r = 0; r<which.length; r++)
+		{
+			if (result.get(r) != which[r])
+				return false;
+		}
+		return true;
+	}
+
+	static long [][] select(long [][] keys, int [] which)
+	{
+		long [][] selected = new long[2][which.length];
+		for (int r = 0; r<which.length; r++)
+		{
+			selected[0][r] = keys[0][which[r]];
+			selected[1][r] = keys[1][which[r]];
+		}
+		return selected;
+	}
+
+	/**
+	 * Returns true if the matrices have the same size and no elements further apart than TOLERANCE.
+	 */
+	static boolean close(DoubleMatrix a, DoubleMatrix b)
+	{
+		return a.getRows() == b.getRows() && a.getColumns() == b.getColumns() && a.sub(b).normmax() <= TOLERANCE;
+	}
+}
@@ -0,0 +1,203 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class Pruning
+ * Static helpers for magnitude pruning: setting the weights with the smallest absolute values to 0.
+ *
+ * 	A mask is a List (in this case Vector) of matrices the same size as the weight matrices, 1 for weights that are
+ * 	kept and 0 for pruned weights. The bias column (column 0) of each weight matrix is never pruned.
+ * 	Masks prune exactly the requested fraction of the weights, either ranked over all layers together (global) or
+ * 	with the same fraction pruned in each layer (per layer). After pruning, the remaining weights can be retrained
+ * 	with the mask kept fixed (MaskedCost), and the pruned network can be run with sparse kernels (SparseNetwork).
+ *
+ * 	Usage:
+ * 		double [] sparsities = {0.5,0.7,0.8,0.9};	//prune gradually, retraining after each step
+ * 		double [] accuracies = Pruning.pruneAndRetrain(network,X,Y,lambda,sparsities,50,true,true);
+ * 		SparseNetwork sparse = new SparseNetwork(network);
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class Pruning
+{
+	/**
+	 * Returns masks that keep the weights with an absolute value above the given threshold.
+	 */
+	public static Vector<DoubleMatrix> masksByThreshold(Vector<DoubleMatrix> Theta, double threshold)
+	{
+		Vector<DoubleMatrix> masks = new Vector<DoubleMatrix>();
+		for (int l = 0; l<Theta.size(); l++)
+		{
+			DoubleMatrix W = Theta.get(l);
+			DoubleMatrix mask = DoubleMatrix.ones(W.getRows(),W.getColumns());
+			for (int k = W.getRows(); k<W.getLength(); k++)	//skip the bias column
+			{
+				if (Math.abs(W.get(k)) <= threshold)
+					mask.put(k,0);
+			}
+			masks.add(mask);
+		}
+		return masks;
+	}
+
+	/**
+	 * Returns masks that prune the given fraction of all (non bias) weights, ranking the weights of every layer together.
+	 */
+	public static Vector<DoubleMatrix> masksGlobal(Vector<DoubleMatrix> Theta, double sparsity)
+	{
+		Vector<DoubleMatrix> masks = keepAll(Theta);
+		pruneSmallest(Theta,masks,0,Theta.size(),sparsity);
+		return masks;
+	}
+
+	/**
+	 * Returns masks that prune the given fraction of the (non bias) weights of each layer.
+	 */
+	public static Vector<DoubleMatrix> masksPerLayer(Vector<DoubleMatrix> Theta, double sparsity)
+	{
+		Vector<DoubleMatrix> masks = keepAll(Theta);
+		for (int l = 0; l<Theta.size(); l++)
+		{
+			pruneSmallest(Theta,masks,l,l+1,sparsity);
+		}
+		return masks;
+	}
+
+	/**
+	 * Returns copies of the weight matrices with the masked weights set to 0.
+	 */
+	public static Vector<DoubleMatrix> applyMasks(Vector<DoubleMatrix> Theta, Vector<DoubleMatrix> masks)
+	{
+		Vector<DoubleMatrix> result = new Vector<DoubleMatrix>();
+		for (int l = 0; l<Theta.size(); l++)
+		{
+			result.add(Theta.get(l).mul(masks.get(l)));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the fraction of the (non bias) weights that are pruned by the given masks.
+	 */
+	public static double sparsity(Vector<DoubleMatrix> masks)
+	{
+		long pruned = 0;
+		long total = 0;
+		for (int l = 0; l<masks.size(); l++)
+		{
+			DoubleMatrix mask = masks.get(l);
+			int weights = mask.getLength()-mask.getRows();
+			total += weights;
+			pruned += weights - (long) (mask.sum()-mask.getRows());
+		}
+		return total == 0 ? 0 : ((double) pruned)/total;
+	}
+
+	/**
+	 * Prunes the network to each of the given (increasing) sparsities in turn, retraining the remaining weights for
+	 * max_iter fmincg iterations after each step with the pruned weights kept at 0.
+	 * Returns the accuracy (NeuralNetwork.computeAccuracy on X and Y) after each step.
+	 */
+	public static double [] pruneAndRetrain(NeuralNetwork nn, DoubleMatrix X, DoubleMatrix Y, double lambda,
+			double [] sparsities, int max_iter, boolean global, boolean verbose)
+	{
+		double [] accuracies = new double[sparsities.length];
+		CostFunction bpCost = new BackPropCost(X,Y,nn.getTopology(),lambda,nn.getOutputType());
+		int [] labels = NeuralNetwork.labelIndices(Y);
+		for (int i = 0; i<sparsities.length; i++)
+		{
+			Vector<DoubleMatrix> Theta = nn.getTheta();
+			Vector<DoubleMatrix> masks = global ? masksGlobal(Theta,sparsities[i]) : masksPerLayer(Theta,sparsities[i]);
+			nn.setTheta(applyMasks(Theta,masks));
+			if (max_iter > 0)
+				nn.train(new MaskedCost(bpCost,NeuralNetwork.reshapeToVector(masks)),max_iter,false);
+			accuracies[i] = NeuralNetwork.computeAccuracy(nn.predictClasses(X),labels);
+			if (verbose)
+				System.out.println("Sparsity: "+sparsity(masks)+" | Accuracy: "+accuracies[i]);
+		}
+		return accuracies;
+	}
+
+	/**
+	 * Returns the accuracy of the network pruned (without retraining) to each of the given sparsities.
+	 * The given network is not changed.
+	 */
+	public static double [] sparsityReport(NeuralNetwork nn, DoubleMatrix X, DoubleMatrix Y,
+			double [] sparsities, boolean global)
+	{
+		double [] accuracies = new double[sparsities.length];
+		int [] labels = NeuralNetwork.labelIndices(Y);
+		Vector<DoubleMatrix> Theta = nn.getTheta();
+		NeuralNetwork pruned = new NeuralNetwork(nn);
+		for (int i = 0; i<sparsities.length; i++)
+		{
+			Vector<DoubleMatrix> masks = global ? masksGlobal(Theta,sparsities[i]) : masksPerLayer(Theta,sparsities[i]);
+			pruned.setTheta(applyMasks(Theta,masks));
+			accuracies[i] = NeuralNetwork.computeAccuracy(pruned.predictClasses(X),labels);
+		}
+		return accuracies;
+	}
+
+	/**
+	 * Returns masks of 1s the size of the weight matrices.
+	 */
+	private static Vector<DoubleMatrix> keepAll(Vector<DoubleMatrix> Theta)
+	{
+		Vector<DoubleMatrix> masks = new Vector<DoubleMatrix>();
+		for (int l = 0; l<Theta.size(); l++)
+		{
+			masks.add(DoubleMatrix.ones(Theta.get(l).getRows(),Theta.get(l).getColumns()));
+		}
+		return masks;
+	}
+
+	/**
+	 * Sets the mask of the round(sparsity*n) non bias weights of layers first ... last-1 with the smallest absolute
+	 * values to 0, where n is the number of non bias weights of those layers. Weights with equal absolute values are
+	 * taken in layer and column order, so exactly that many weights are pruned even when values are tied.
+	 */
+	private static void pruneSmallest(Vector<DoubleMatrix> Theta, Vector<DoubleMatrix> masks, int first, int last, double sparsity)
+	{
+		int length = 0;
+		for (int l = first; l<last; l++)
+		{
+			length += Theta.get(l).getLength()-Theta.get(l).getRows();
+		}
+		int count = (int) Math.min(length,Math.round(sparsity*length));
+		if (count <= 0)
+			return;
+		final double [] magnitudes = new double[length];
+		int [] layerOf = new int[length];
+		int [] indexOf = new int[length];
+		Integer [] order = new Integer[length];
+		int offset = 0;
+		for (int l = first; l<last; l++)
+		{
+			DoubleMatrix W = Theta.get(l);
+			for (int k = W.getRows(); k<W.getLength(); k++)	//skip the bias column
+			{
+				magnitudes[offset] = Math.abs(W.get(k));
+				layerOf[offset] = l;
+				indexOf[offset] = k;
+				order[offset] = Integer.valueOf(offset);
+				offset++;
+			}
+		}
+		//Arrays.sort of objects is stable, so tied weights keep their order
+		Arrays.sort(order,new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(magnitudes[a.intValue()],magnitudes[b.intValue()]);
+			}
+		});
+		for (int i = 0; i<count; i++)
+		{
+			int weight = order[i].intValue();
+			masks.get(layerOf[weight]).put(indexOf[weight],0);
+		}
+	}
+}
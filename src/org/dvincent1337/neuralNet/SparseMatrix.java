@@ -0,0 +1,136 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class SparseMatrix
+ * A compressed sparse row (CSR) copy of a weight matrix (S(j+1) x (S(j)+1)) for forward prop of pruned networks.
+ *
+ * 	The bias column (column 0) is kept as a dense array, and only the nonzero weights of the other columns are stored,
+ * 	as a value and a column index per weight plus the offset of the first weight of each row.
+ * 	Memory is 8 bytes per bias and 12 bytes per stored weight, instead of 8 bytes per element of the dense matrix.
+ */
+
+import org.jblas.DoubleMatrix;
+
+public class SparseMatrix
+{
+	private int itsRows;
+	private int itsColumns;		//Columns of the dense matrix, including the bias column
+	private double [] itsBias;	//Column 0 of the dense matrix
+	private int [] itsRowStart;	//Index in itsValues of the first weight of each row, followed by the number of weights
+	private int [] itsColumnIndex;	//Input index (dense column - 1) of each weight
+	private double [] itsValues;
+
+	/**
+	 * Constructs a sparse copy of the given weight matrix, dropping elements equal to 0.
+	 */
+	public SparseMatrix(DoubleMatrix W)
+	{
+		itsRows = W.getRows();
+		itsColumns = W.getColumns();
+		itsBias = new double[itsRows];
+		itsRowStart = new int[itsRows+1];
+		int nonzero = 0;
+		for (int i = 0; i<itsRows; i++)
+		{
+			itsBias[i] = W.get(i,0);
+			for (int j = 1; j<itsColumns; j++)
+			{
+				if (W.get(i,j) != 0)
+					nonzero++;
+			}
+		}
+		itsColumnIndex = new int[nonzero];
+		itsValues = new double[nonzero];
+		int k = 0;
+		for (int i = 0; i<itsRows; i++)
+		{
+			itsRowStart[i] = k;
+			for (int j = 1; j<itsColumns; j++)
+			{
+				double value = W.get(i,j);
+				if (value != 0)
+				{
+					itsColumnIndex[k] = j-1;
+					itsValues[k] = value;
+					k++;
+				}
+			}
+		}
+		itsRowStart[itsRows] = k;
+	}
+
+	/**
+	 * Returns [ones(m,1) A] * W' for a batch of activations A (m x (columns-1), without the bias column).
+	 * 	Each column of the result is the bias plus a weighted sum of columns of A; since matrices are stored
+	 * 	column by column, every stored weight adds one contiguous column of A into one contiguous column of the result.
+	 */
+	public DoubleMatrix multiplyTransposed(DoubleMatrix A)
+	{
+		if (A.getColumns() != itsColumns-1)
+			throw new IllegalArgumentException("Expected "+(itsColumns-1)+" columns, got "+A.getColumns());
+		int m = A.getRows();
+		DoubleMatrix result = new DoubleMatrix(m,itsRows);
+		double [] a = A.data;
+		double [] r = result.data;
+		for (int i = 0; i<itsRows; i++)
+		{
+			int out = i*m;
+			double bias = itsBias[i];
+			for (int p = 0; p<m; p++)
+			{
+				r[out+p] = bias;
+			}
+			for (int k = itsRowStart[i]; k<itsRowStart[i+1]; k++)
+			{
+				double w = itsValues[k];
+				int in = itsColumnIndex[k]*m;
+				for (int p = 0; p<m; p++)
+				{
+					r[out+p] += w*a[in+p];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the dense weight matrix.
+	 */
+	public DoubleMatrix toDense()
+	{
+		DoubleMatrix W = new DoubleMatrix(itsRows,itsColumns);
+		for (int i = 0; i<itsRows; i++)
+		{
+			W.put(i,0,itsBias[i]);
+			for (int k = itsRowStart[i]; k<itsRowStart[i+1]; k++)
+			{
+				W.put(i,itsColumnIndex[k]+1,itsValues[k]);
+			}
+		}
+		return W;
+	}
+
+	/**
+	 * Returns the number of stored (nonzero, non bias) weights.
+	 */
+	public int getNonzeros()
+	{
+		return itsValues.length;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the arrays of this matrix.
+	 */
+	public long getMemoryBytes()
+	{
+		return 8L*itsBias.length + 4L*itsRowStart.length + 12L*itsValues.length;
+	}
+
+	public int getRows()
+	{
+		return itsRows;
+	}
+	public int getColumns()
+	{
+		return itsColumns;
+	}
+}
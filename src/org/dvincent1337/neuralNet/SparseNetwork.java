@@ -0,0 +1,87 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class SparseNetwork
+ * A read-only copy of a (pruned) neural network that stores its weight matrices as SparseMatrix and runs forward
+ * prop with the sparse kernels. Use Pruning to zero the small weights first; a dense network gains nothing.
+ */
+
+import java.util.Vector;
+
+import org.jblas.DoubleMatrix;
+
+public class SparseNetwork
+{
+	private SparseMatrix [] itsTheta;
+	private OutputType itsOutputType;
+
+	/**
+	 * Constructs a sparse copy of the given network.
+	 */
+	public SparseNetwork(NeuralNetwork nn)
+	{
+		Vector<DoubleMatrix> Theta = nn.getTheta();
+		itsTheta = new SparseMatrix[Theta.size()];
+		for (int i = 0; i<Theta.size(); i++)
+		{
+			itsTheta[i] = new SparseMatrix(Theta.get(i));
+		}
+		itsOutputType = nn.getOutputType();
+	}
+
+	/**
+	 * Returns the output layer before the output activation (see NeuralNetwork.forwardPropOutput)
+	 */
+	public DoubleMatrix forwardPropOutput(DoubleMatrix X)
+	{
+		DoubleMatrix a = X;
+		for (int i = 0; i<itsTheta.length-1; i++)
+		{
+			a = NeuralNetwork.sigmoid(itsTheta[i].multiplyTransposed(a));
+		}
+		return itsTheta[itsTheta.length-1].multiplyTransposed(a);
+	}
+
+	/**
+	 * Returns the hypothesis (see NeuralNetwork.hypothesisFP)
+	 */
+	public DoubleMatrix hypothesisFP(DoubleMatrix X)
+	{
+		if (itsOutputType == OutputType.SOFTMAX)
+			return NeuralNetwork.softmax(forwardPropOutput(X));
+		return NeuralNetwork.sigmoid(forwardPropOutput(X));
+	}
+
+	/**
+	 * Returns the predicted class index of each row (see NeuralNetwork.predictClasses)
+	 */
+	public int [] predictClasses(DoubleMatrix X)
+	{
+		return forwardPropOutput(X).rowArgmaxs();
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the weights.
+	 */
+	public long getMemoryBytes()
+	{
+		long bytes = 0;
+		for (int i = 0; i<itsTheta.length; i++)
+		{
+			bytes += itsTheta[i].getMemoryBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of stored (nonzero, non bias) weights.
+	 */
+	public int getNonzeros()
+	{
+		int nonzeros = 0;
+		for (int i = 0; i<itsTheta.length; i++)
+		{
+			nonzeros += itsTheta[i].getNonzeros();
+		}
+		return nonzeros;
+	}
+}
@@ -0,0 +1,181 @@
+package org.dvincent1337.neuralNet;
+/*
+ * class TuningProfile
+ * Machine specific performance settings (batch sizes, thread counts) found by Autotuner, stored as a properties file.
+ *
+ * 	The engines read the default profile when they start: trainWithBackprop uses a PipelinedBackPropCost with the
+ * 	profile's stages and micro-batch size when that was faster than BackPropCost, and BatchedPredictor uses the profile's
+ * 	batch size and worker threads. Without a profile file the defaults are the plain single threaded settings.
+ * 	The best settings depend on the layer sizes, so a profile saved by Autotuner records the topology it was tuned for
+ * 	(tuned.topology) and the engines only use it for networks of that topology (see forTopology); other networks
+ * 	get the defaults. A profile without tuned.topology is used for every network.
+ *
+ * 	The default profile file is given by the system property neuralNet.tuning, or else is
+ * 	~/.neuralNetTuning.properties
+ *
+ * 	The number of BLAS threads cannot be changed once jblas has loaded its native library, so it is only recorded here
+ * 	(for training and inference separately); set it with the environment variable OPENBLAS_NUM_THREADS
+ * 	(Autotuner prints the command).
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+public class TuningProfile
+{
+	public static final String TRAINING_BLAS_THREADS = "training.blasThreads";
+	public static final String TRAINING_STAGES = "training.stages";			//1 means BackPropCost
+	public static final String TRAINING_MICRO_BATCH = "training.microBatch";
+	public static final String INFERENCE_BLAS_THREADS = "inference.blasThreads";
+	public static final String INFERENCE_BATCH_SIZE = "inference.batchSize";
+	public static final String INFERENCE_WORKERS = "inference.workers";
+	public static final String TUNED_TOPOLOGY = "tuned.topology";			//Comma separated layer sizes, for example 400,25,10
+	public static final String TUNED_EXAMPLES = "tuned.examples";
+	public static final String TUNED_PROCESSORS = "tuned.processors";
+
+	private static TuningProfile defaultProfile;
+
+	private Properties itsProperties = new Properties();
+
+	/**
+	 * Constructs an empty profile (every setting takes its fallback value).
+	 */
+	public TuningProfile()
+	{
+	}
+
+	/**
+	 * Loads a profile from the given properties file.
+	 */
+	public static TuningProfile load(File file) throws IOException
+	{
+		TuningProfile profile = new TuningProfile();
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			profile.itsProperties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		return profile;
+	}
+
+	/**
+	 * Saves the profile to the given properties file.
+	 */
+	public void save(File file, String comment) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			itsProperties.store(out,comment);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the default profile, loaded from getDefaultFile() the first time (empty if there is no such file).
+	 */
+	public static synchronized TuningProfile getDefault()
+	{
+		if (defaultProfile == null)
+		{
+			File file = getDefaultFile();
+			defaultProfile = new TuningProfile();
+			if (file.isFile())
+			{
+				try
+				{
+					defaultProfile = load(file);
+				}
+				catch (IOException e)
+				{
+					System.err.println("Could not read tuning profile "+file+": "+e.getMessage());
+				}
+			}
+		}
+		return defaultProfile;
+	}
+
+	/**
+	 * Returns the file of the default profile.
+	 */
+	public static File getDefaultFile()
+	{
+		String name = System.getProperty("neuralNet.tuning");
+		if (name != null)
+			return new File(name);
+		return new File(System.getProperty("user.home"),".neuralNetTuning.properties");
+	}
+
+	/**
+	 * Returns this profile if it was tuned for the given topology (or records no topology), or else an empty profile
+	 * so every setting takes its fallback value.
+	 */
+	public TuningProfile forTopology(int [] topology)
+	{
+		String tuned = getString(TUNED_TOPOLOGY);
+		if (tuned == null)
+			return this;
+		String [] parts = tuned.split(",");
+		if (parts.length != topology.length)
+			return new TuningProfile();
+		try
+		{
+			for (int i = 0; i<parts.length; i++)
+			{
+				if (Integer.parseInt(parts[i].trim()) != topology[i])
+					return new TuningProfile();
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			return new TuningProfile();
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the value of the given setting, or fallback if it is not set (or not a positive number).
+	 */
+	public int getInt(String key, int fallback)
+	{
+		String value = itsProperties.getProperty(key);
+		if (value == null)
+			return fallback;
+		try
+		{
+			int result = Integer.parseInt(value.trim());
+			return result > 0 ? result : fallback;
+		}
+		catch (NumberFormatException e)
+		{
+			return fallback;
+		}
+	}
+
+	public void setInt(String key, int value)
+	{
+		itsProperties.setProperty(key,Integer.toString(value));
+	}
+
+	public String getString(String key)
+	{
+		return itsProperties.getProperty(key);
+	}
+
+	public void setString(String key, String value)
+	{
+		itsProperties.setProperty(key,value);
+	}
+}